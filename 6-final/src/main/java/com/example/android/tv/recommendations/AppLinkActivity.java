@@ -23,6 +23,7 @@ import android.util.Log;
 import android.widget.Toast;
 import com.example.android.tv.recommendations.model.MockDatabase;
 import com.example.android.tv.recommendations.model.Movie;
+import com.example.android.tv.recommendations.model.MovieView;
 import com.example.android.tv.recommendations.model.Subscription;
 import com.example.android.tv.recommendations.playback.PlaybackActivity;
 import com.example.android.tv.recommendations.util.AppLinkHelper;
@@ -97,11 +98,13 @@ public class AppLinkActivity extends Activity {
                             + action.getPosition());
         }
 
-        Movie movie = MockDatabase.findMovieById(this, action.getChannelId(), action.getMovieId());
-        if (movie == null) {
+        // Look the movie up without loading the whole channel, only the one movie is copied.
+        MovieView movie = new MovieView();
+        if (!MockDatabase.findMovieById(
+                this, action.getChannelId(), action.getMovieId(), movie)) {
             Log.e(TAG, "Invalid program " + action.getMovieId());
         } else {
-            startPlaying(action.getChannelId(), movie, action.getPosition());
+            startPlaying(action.getChannelId(), movie.toMovie(), action.getPosition());
         }
         finish();
     }
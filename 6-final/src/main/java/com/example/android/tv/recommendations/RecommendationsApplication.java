@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations;
+
+import android.app.Application;
+import com.example.android.tv.recommendations.model.MockDatabase;
+
+/**
+ * Starts loading the catalog as soon as the process starts, whether it was started for the
+ * launcher, {@link InitializeChannelsReceiver} or one of the job services. Whichever of them first
+ * needs the catalog waits for that load instead of reading the store again.
+ */
+public class RecommendationsApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        MockDatabase.warmUp(this);
+    }
+}
@@ -44,6 +44,12 @@ public class SyncChannelJobService extends JobService {
                     protected void onPostExecute(Boolean success) {
                         super.onPostExecute(success);
                         jobFinished(jobParameters, !success);
+                        if (success) {
+                            // Channels may have been recreated, sweep the movies of the old ones
+                            // without holding up the sync.
+                            new DeleteOrphanedMoviesTask(getApplicationContext())
+                                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                        }
                     }
                 };
         mSyncChannelTask.execute();
@@ -95,4 +101,23 @@ public class SyncChannelJobService extends JobService {
             return true;
         }
     }
+
+    private static class DeleteOrphanedMoviesTask extends AsyncTask<Void, Void, Long> {
+
+        private final Context mContext;
+
+        DeleteOrphanedMoviesTask(Context context) {
+            this.mContext = context;
+        }
+
+        @Override
+        protected Long doInBackground(Void... voids) {
+            return MockDatabase.deleteOrphanedMovies(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(Long bytesReclaimed) {
+            Log.d(TAG, "Orphaned movie sweep reclaimed " + bytesReclaimed + " bytes");
+        }
+    }
 }
@@ -18,6 +18,7 @@ import android.app.job.JobService;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.PersistableBundle;
@@ -26,15 +27,33 @@ import android.support.media.tv.Channel;
 import android.support.media.tv.PreviewProgram;
 import android.support.media.tv.TvContractCompat;
 import android.util.Log;
+import com.example.android.tv.recommendations.model.CatalogIterator;
+import com.example.android.tv.recommendations.model.CatalogSource;
 import com.example.android.tv.recommendations.model.MockDatabase;
 import com.example.android.tv.recommendations.model.MockMovieService;
 import com.example.android.tv.recommendations.model.Movie;
 import com.example.android.tv.recommendations.model.Subscription;
 import com.example.android.tv.recommendations.util.AppLinkHelper;
+import com.example.android.tv.recommendations.util.MovieTypeAdapter;
 import com.example.android.tv.recommendations.util.TvUtil;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Syncs programs for a channel. A channel id is required to be passed via the {@link
@@ -103,9 +122,8 @@ public class SyncProgramsJobService extends JobService {
      *      If the channel does have programs, then a fresh list of programs will be fetched and the
      *          channel's programs will be updated.
      */
-    private void syncPrograms(long channelId, List<Movie> initialMovies) {
+    private void syncPrograms(long channelId, Subscription subscription) {
         Log.d(TAG, "Sync programs for channel: " + channelId);
-        List<Movie> movies = new ArrayList<>(initialMovies);
 
         try (Cursor cursor =
                 getContentResolver()
@@ -119,75 +137,168 @@ public class SyncProgramsJobService extends JobService {
                 Channel channel = Channel.fromCursor(cursor);
                 if (!channel.isBrowsable()) {
                     Log.d(TAG, "Channel is not browsable: " + channelId);
-                    deletePrograms(channelId, movies);
+                    deletePrograms(channelId);
                 } else {
                     Log.d(TAG, "Channel is browsable: " + channelId);
+                    List<Movie> movies = MockDatabase.getMovies(getApplicationContext(), channelId);
                     if (movies.isEmpty()) {
-                        movies = createPrograms(channelId, MockMovieService.getList());
+                        createPrograms(channelId, subscription);
                     } else {
-                        movies = updatePrograms(channelId, movies);
+                        updatePrograms(channelId, subscription, movies);
                     }
-                    MockDatabase.saveMovies(getApplicationContext(), channelId, movies);
                 }
             }
         }
     }
 
-    private List<Movie> createPrograms(long channelId, List<Movie> movies) {
-
-        List<Movie> moviesAdded = new ArrayList<>(movies.size());
-        for (Movie movie : movies) {
-            PreviewProgram previewProgram = buildProgram(channelId, movie);
-
-            Uri programUri =
-                    getContentResolver()
-                            .insert(
-                                    TvContractCompat.PreviewPrograms.CONTENT_URI,
-                                    previewProgram.toContentValues());
-            long programId = ContentUris.parseId(programUri);
-            Log.d(TAG, "Inserted new program: " + programId);
-            movie.setProgramId(programId);
-            moviesAdded.add(movie);
+    /**
+     * Adds a program for every movie of the catalog, then stores the movies. Pages are fetched and
+     * their programs inserted before the store is touched, so no lock of the store is held across
+     * network or provider calls. The movies are spooled to a file in between and imported from
+     * it, so only a page of the catalog is in memory at a time. If the catalog cannot be read to
+     * the end or the movies cannot be stored, the programs added so far are deleted again and
+     * nothing is stored, so the next sync starts over.
+     */
+    private void createPrograms(long channelId, Subscription subscription) {
+        Context context = getApplicationContext();
+        List<Long> programIds = new ArrayList<>();
+        File spool = new File(getCacheDir(), "programs-" + channelId + ".json");
+        try {
+            MovieTypeAdapter adapter = new MovieTypeAdapter();
+            try (CatalogSource source = MockMovieService.getCatalogSource(context, subscription);
+                    JsonWriter writer =
+                            new JsonWriter(
+                                    new BufferedWriter(
+                                            new OutputStreamWriter(
+                                                    new FileOutputStream(spool),
+                                                    StandardCharsets.UTF_8)))) {
+                Iterator<Movie> catalog =
+                        new CatalogIterator(source, CatalogSource.DEFAULT_PAGE_SIZE);
+                writer.beginArray();
+                while (catalog.hasNext()) {
+                    Movie movie = catalog.next();
+                    long programId = insertProgram(channelId, movie);
+                    programIds.add(programId);
+                    movie.setProgramId(programId);
+                    adapter.write(writer, movie);
+                }
+                writer.endArray();
+            }
+            try (Reader json =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    new FileInputStream(spool), StandardCharsets.UTF_8))) {
+                MockDatabase.importMovies(context, channelId, json);
+            }
+        } catch (IOException | UncheckedIOException | SQLException e) {
+            Log.e(TAG, "Could not import the catalog for channel " + channelId, e);
+            for (long programId : programIds) {
+                getContentResolver()
+                        .delete(TvContractCompat.buildPreviewProgramUri(programId), null, null);
+            }
+        } finally {
+            if (spool.exists() && !spool.delete()) {
+                Log.e(TAG, "Could not delete " + spool);
+            }
         }
+    }
 
-        return moviesAdded;
+    private long insertProgram(long channelId, Movie movie) {
+        PreviewProgram previewProgram = buildProgram(channelId, movie);
+
+        Uri programUri =
+                getContentResolver()
+                        .insert(
+                                TvContractCompat.PreviewPrograms.CONTENT_URI,
+                                previewProgram.toContentValues());
+        long programId = ContentUris.parseId(programUri);
+        Log.d(TAG, "Inserted new program: " + programId);
+        return programId;
     }
 
-    private List<Movie> updatePrograms(long channelId, List<Movie> movies) {
+    private void updatePrograms(long channelId, Subscription subscription, List<Movie> movies) {
+        // The stored movie at each position, which replacements may swap with a later one.
+        long[] movieIds = new long[movies.size()];
+        Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < movies.size(); ++i) {
+            movieIds[i] = movies.get(i).getId();
+            positions.put(movieIds[i], i);
+        }
 
         // By getting a fresh list, we should see a visible change in the home screen.
-        List<Movie> updateMovies = MockMovieService.getFreshList();
-        for (int i = 0; i < movies.size(); ++i) {
-            Movie old = movies.get(i);
-            Movie update = updateMovies.get(i);
-            long programId = old.getProgramId();
-
-            getContentResolver()
-                    .update(
-                            TvContractCompat.buildPreviewProgramUri(programId),
-                            buildProgram(channelId, update).toContentValues(),
-                            null,
-                            null);
-            Log.d(TAG, "Updated program: " + programId);
-            update.setProgramId(programId);
+        try (CatalogSource source =
+                MockMovieService.getFreshCatalogSource(
+                        getApplicationContext(), subscription, movies.size())) {
+            // Fetch no more than the channel shows, so short channels copy few movies.
+            Iterator<Movie> updateMovies =
+                    new CatalogIterator(
+                            source, Math.min(movies.size(), CatalogSource.DEFAULT_PAGE_SIZE));
+            for (int i = 0; i < movies.size() && updateMovies.hasNext(); ++i) {
+                Movie update = updateMovies.next();
+                if (!updateProgram(channelId, movies.get(i), movieIds[i], update)) {
+                    Log.d(TAG, "Movies of channel " + channelId + " changed, stop updating");
+                    return;
+                }
+                Integer position = positions.get(update.getId());
+                if (position == null) {
+                    positions.remove(movieIds[i]);
+                } else if (position != i) {
+                    movieIds[position] = movieIds[i];
+                    positions.put(movieIds[i], position);
+                }
+                movieIds[i] = update.getId();
+                positions.put(update.getId(), i);
+            }
+        } catch (UncheckedIOException e) {
+            Log.e(TAG, "Could not read the catalog for channel " + channelId, e);
+        }
+    }
+
+    /**
+     * Shows a movie in the program of another one, and stores it in that movie's place.
+     *
+     * @param shown the movie that the program was created or last updated with.
+     * @param storedMovieId of the movie now stored at the program's position.
+     * @return false if the stored movie no longer exists.
+     */
+    private boolean updateProgram(long channelId, Movie shown, long storedMovieId, Movie update) {
+        long programId = shown.getProgramId();
+        if (update.getId() == shown.getId()
+                && storedMovieId == shown.getId()
+                && update.hasSameContent(shown)) {
+            // Ids are derived from the content, so the program already shows this movie.
+            Log.d(TAG, "Program is unchanged: " + programId);
+            return true;
         }
 
-        return updateMovies;
+        // The program id and a watch next id saved meanwhile are kept by the store.
+        if (MockDatabase.replaceMovie(getApplicationContext(), channelId, storedMovieId, update)
+                == null) {
+            return false;
+        }
+        getContentResolver()
+                .update(
+                        TvContractCompat.buildPreviewProgramUri(programId),
+                        buildProgram(channelId, update).toContentValues(),
+                        null,
+                        null);
+        Log.d(TAG, "Updated program: " + programId);
+        return true;
     }
 
-    private void deletePrograms(long channelId, List<Movie> movies) {
-        if (movies.isEmpty()) {
+    private void deletePrograms(long channelId) {
+        // Only the program ids are needed, skip reading the rest of the movies.
+        long[] programIds =
+                MockDatabase.getMovieIds(getApplicationContext(), channelId).getProgramIds();
+        if (programIds.length == 0) {
             return;
         }
 
         int count = 0;
-        for (Movie movie : movies) {
+        for (long programId : programIds) {
             count +=
                     getContentResolver()
-                            .delete(
-                                    TvContractCompat.buildPreviewProgramUri(movie.getProgramId()),
-                                    null,
-                                    null);
+                            .delete(TvContractCompat.buildPreviewProgramUri(programId), null, null);
         }
         Log.d(TAG, "Deleted " + count + " programs for  channel " + channelId);
 
@@ -228,10 +339,11 @@ public class SyncProgramsJobService extends JobService {
                     Subscription subscription =
                             MockDatabase.findSubscriptionByChannelId(mContext, channelId);
                     if (subscription != null) {
-                        List<Movie> cachedMovies = MockDatabase.getMovies(mContext, channelId);
-                        syncPrograms(channelId, cachedMovies);
+                        syncPrograms(channelId, subscription);
                     }
                 }
+                // Write the synced programs to disk before the job is reported as finished.
+                MockDatabase.flush(mContext);
             }
             return true;
         }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the last response for each catalog URL on disk, with the validators it came with, so it can
+ * be revalidated with a conditional request and served while offline.
+ *
+ * <p>Each entry is a body file and a properties file of metadata. Bodies are written to a temporary
+ * file first and renamed into place, so a pass that is reading the previous body keeps reading it
+ * intact. Once the bodies take up more than the size limit, the least recently used ones are
+ * deleted, but never the one just stored, so a single catalog larger than the limit is still kept.
+ */
+final class CatalogCache {
+
+    private static final String TAG = "CatalogCache";
+
+    private static final String BODY_SUFFIX = ".json";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last-modified";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * @param directory that only this cache writes to, created when the first entry is stored.
+     * @param maxBytes that the bodies may take up before old entries are deleted.
+     */
+    CatalogCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the entry of a URL and marks it as recently used.
+     *
+     * @param url that the entry was fetched from.
+     * @return the entry, or null if there is none.
+     */
+    @Nullable
+    synchronized Entry get(String url) {
+        String key = keyOf(url);
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        Properties metadata = new Properties();
+        try (InputStream in = new FileInputStream(new File(mDirectory, key + METADATA_SUFFIX))) {
+            metadata.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!url.equals(metadata.getProperty(KEY_URL)) || !body.isFile()) {
+            // Another URL with the same hash, or an entry whose body was lost.
+            return null;
+        }
+        touch(body);
+        return new Entry(
+                body, metadata.getProperty(KEY_ETAG), metadata.getProperty(KEY_LAST_MODIFIED));
+    }
+
+    /**
+     * Replaces the entry of a URL, then deletes old entries if the cache is over its limit.
+     *
+     * @param url that the body was fetched from.
+     * @param body of the response, decoded. It is read to the end but not closed.
+     * @param eTag of the response, or null if it has none.
+     * @param lastModified date of the response, or null if it has none.
+     * @return the new entry.
+     * @throws IOException if the body could not be read or stored.
+     */
+    synchronized Entry put(
+            String url, InputStream body, @Nullable String eTag, @Nullable String lastModified)
+            throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        String key = keyOf(url);
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        File temporaryFile = new File(mDirectory, key + TEMPORARY_SUFFIX);
+        try {
+            try (OutputStream out = new FileOutputStream(temporaryFile)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            if (!temporaryFile.renameTo(bodyFile)) {
+                throw new IOException("Could not rename " + temporaryFile + " to " + bodyFile);
+            }
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                Log.e(TAG, "Could not delete " + temporaryFile);
+            }
+        }
+
+        Properties metadata = new Properties();
+        metadata.setProperty(KEY_URL, url);
+        if (eTag != null) {
+            metadata.setProperty(KEY_ETAG, eTag);
+        }
+        if (lastModified != null) {
+            metadata.setProperty(KEY_LAST_MODIFIED, lastModified);
+        }
+        File metadataFile = new File(mDirectory, key + METADATA_SUFFIX);
+        try (OutputStream out = new FileOutputStream(metadataFile)) {
+            metadata.store(out, null);
+        }
+
+        trim(bodyFile);
+        return new Entry(bodyFile, eTag, lastModified);
+    }
+
+    /** Marks an entry as recently used, after it was revalidated. */
+    synchronized void touch(Entry entry) {
+        touch(entry.getBody());
+    }
+
+    private static void touch(File body) {
+        if (!body.setLastModified(System.currentTimeMillis())) {
+            Log.w(TAG, "Could not mark " + body + " as used");
+        }
+    }
+
+    /** Deletes the least recently used entries other than {@code keep} until under the limit. */
+    private void trim(File keep) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long bytes = 0;
+        List<File> bodies = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(BODY_SUFFIX)) {
+                bodies.add(file);
+                bytes += file.length();
+            }
+        }
+        Collections.sort(
+                bodies,
+                new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        return Long.compare(a.lastModified(), b.lastModified());
+                    }
+                });
+        for (int i = 0; i < bodies.size() && bytes > mMaxBytes; ++i) {
+            File body = bodies.get(i);
+            if (body.equals(keep)) {
+                continue;
+            }
+            long length = body.length();
+            String name = body.getName();
+            File metadata =
+                    new File(
+                            mDirectory,
+                            name.substring(0, name.length() - BODY_SUFFIX.length())
+                                    + METADATA_SUFFIX);
+            // Drop the metadata first, an entry without it is treated as missing.
+            if (metadata.delete() | body.delete()) {
+                bytes -= length;
+                Log.d(TAG, "Evicted " + body + " of " + length + " bytes");
+            }
+        }
+    }
+
+    /** Returns the file name of the entry of a URL. Entries keep their URL to tell collisions. */
+    private static String keyOf(String url) {
+        return Integer.toHexString(url.hashCode());
+    }
+
+    /** A cached response body and its validators. */
+    static final class Entry {
+
+        private final File mBody;
+        @Nullable private final String mETag;
+        @Nullable private final String mLastModified;
+
+        Entry(File body, @Nullable String eTag, @Nullable String lastModified) {
+            mBody = body;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        File getBody() {
+            return mBody;
+        }
+
+        @Nullable
+        String getETag() {
+            return mETag;
+        }
+
+        @Nullable
+        String getLastModified() {
+            return mLastModified;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a pass of a {@link CatalogSource}, fetching the next page only once the movies of
+ * the previous one are used up. At most one page is held in memory, so the movies can be fed to
+ * {@link MockDatabase#importMovies(android.content.Context, long, Iterator)}.
+ *
+ * <p>An {@link IOException} of the source is rethrown as an {@link UncheckedIOException}.
+ */
+public final class CatalogIterator implements Iterator<Movie> {
+
+    private final CatalogSource mSource;
+    private final int mPageSize;
+
+    private List<Movie> mPage;
+    private int mNext;
+    private String mNextCursor;
+    private boolean mLastPage;
+
+    /**
+     * @param source to fetch the pages from, starting with the first one.
+     * @param pageSize most movies to fetch per page.
+     */
+    public CatalogIterator(CatalogSource source, int pageSize) {
+        mSource = source;
+        mPageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        // A source may return empty pages before the last one.
+        while ((mPage == null || mNext == mPage.size()) && !mLastPage) {
+            CatalogSource.Page page;
+            try {
+                page = mSource.fetchPage(mNextCursor, mPageSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mPage = page.getMovies();
+            mNext = 0;
+            mNextCursor = page.getNextCursor();
+            mLastPage = mNextCursor == null;
+        }
+        return mNext < mPage.size();
+    }
+
+    @Override
+    public Movie next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mPage.get(mNext++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
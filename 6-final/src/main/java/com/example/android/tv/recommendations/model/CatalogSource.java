@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A catalog of movies that is fetched a page at a time, so it never has to fit in memory.
+ *
+ * <p>Each page comes with an opaque cursor that the next page is fetched from. Sources are tuned
+ * for fetching the pages of a pass over the catalog in order, and may be slower when a page is
+ * fetched out of order. A source can still be used after it is closed. {@link CatalogIterator}
+ * walks a whole pass.
+ */
+public interface CatalogSource extends Closeable {
+
+    /** Number of movies fetched per page, unless a caller knows better. */
+    int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Fetches the page of movies that starts at a cursor.
+     *
+     * @param cursor of the page returned with the previous page, or null for the first page.
+     * @param pageSize most movies to return, greater than zero.
+     * @return the page, whose next cursor is null if it is the last one.
+     * @throws IOException if the catalog could not be read or parsed, or the cursor is not one
+     *     that the source returned.
+     */
+    Page fetchPage(@Nullable String cursor, int pageSize) throws IOException;
+
+    /** Releases what a pass in progress holds open. Failures are logged rather than thrown. */
+    @Override
+    void close();
+
+    /** A page of movies and where the next page starts. */
+    final class Page {
+
+        private final List<Movie> mMovies;
+        @Nullable private final String mNextCursor;
+
+        public Page(List<Movie> movies, @Nullable String nextCursor) {
+            mMovies = movies;
+            mNextCursor = nextCursor;
+        }
+
+        public List<Movie> getMovies() {
+            return mMovies;
+        }
+
+        /** Returns the cursor of the next page, or null if this is the last page. */
+        @Nullable
+        public String getNextCursor() {
+            return mNextCursor;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage engine behind {@link MockDatabase}.
+ *
+ * <p>A store persists the subscriptions and the movies of each channel. {@link MockDatabase} keeps
+ * the subscriptions indexed in memory and buffers movie changes in a {@link WriteBehindMovieCache},
+ * so implementations only see whole lists and batches. Implementations must be thread safe.
+ *
+ * <p>The store is chosen by {@code BuildConfig.CATALOG_STORE}, or replaced with {@link
+ * MockDatabase#setCatalogStore} to compare engines.
+ */
+public interface CatalogStore {
+
+    /**
+     * Returns true once the catalog persisted in shared preferences by earlier versions of the app
+     * has been imported, as recorded by {@link #setLegacyCatalogImported}.
+     */
+    boolean isLegacyCatalogImported();
+
+    /** Records that the legacy catalog has been imported, so it is not imported again. */
+    void setLegacyCatalogImported();
+
+    /**
+     * Returns the subscriptions in the order they were saved.
+     *
+     * @return a mutable list of subscriptions or an empty list if none exist.
+     */
+    List<Subscription> readSubscriptions();
+
+    /**
+     * Replaces every subscription.
+     *
+     * @param subscriptions to be stored.
+     */
+    void writeSubscriptions(List<Subscription> subscriptions);
+
+    /**
+     * Returns the movies of a channel in the order they were saved.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return a mutable list of movies or an empty list if none exist.
+     */
+    List<Movie> readMovies(long channelId);
+
+    /**
+     * Returns the ids of the movies of a channel without materializing the movies.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return the id columns in saved order, empty if the channel has no movies.
+     */
+    MovieIds readMovieIds(long channelId);
+
+    /**
+     * Finds a movie of a channel by its id.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @return the movie or null if it does not exist.
+     */
+    @Nullable
+    Movie findMovie(long channelId, long movieId);
+
+    /**
+     * Points a view at a movie of a channel, found by its id.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @param view to point at the movie.
+     * @return true if the movie exists, false leaves the view unchanged.
+     */
+    boolean findMovie(long channelId, long movieId, MovieView view);
+
+    /**
+     * Replaces the movies of a channel. An empty list removes the channel. A movie that occurs more
+     * than once is stored at its first position only.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    void writeMovies(long channelId, List<Movie> movies);
+
+    /**
+     * Replaces the movies of a channel with the movies of a stream, without holding all of them in
+     * memory at once. An empty stream removes the channel. A movie that occurs more than once is
+     * stored at its first position only. Exceptions thrown by the stream are propagated, and so are
+     * failures to write the store as unchecked exceptions. Either leaves the stored movies
+     * unchanged.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored, in order.
+     */
+    void importMovies(long channelId, Iterator<Movie> movies);
+
+    /**
+     * Stores movies that were saved one by one since the channel was last written.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param updatedMovies that were added or changed.
+     * @param allMovies every movie of the channel, including the updated ones.
+     */
+    void updateMovies(long channelId, List<Movie> updatedMovies, List<Movie> allMovies);
+
+    /**
+     * Deletes the movies of every channel that is not in {@code channelIds}.
+     *
+     * @param channelIds of the channels whose movies are kept.
+     * @return an estimate of the number of bytes reclaimed.
+     */
+    long deleteOrphanedChannels(Set<Long> channelIds);
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches a catalog from a server, as a JSON array of movies in the format of {@link
+ * LocalCatalogSource}.
+ *
+ * <p>The response is kept in a {@link CatalogCache} and paged from there. When the first page of a
+ * source is fetched, the cached copy is revalidated with {@code If-None-Match} and {@code
+ * If-Modified-Since}, so an unchanged catalog costs a round trip and no body. Responses are
+ * requested gzip encoded. Bodies are read to the end and connections are left open, so {@link
+ * HttpURLConnection} reuses them for the next request to the same server. If the server cannot be
+ * reached, the cached copy is served however old it is, and revalidated by the next source.
+ */
+public final class HttpCatalogSource implements CatalogSource {
+
+    private static final String TAG = "HttpCatalogSource";
+
+    /** Name of the cache directory in the app's cache directory. */
+    private static final String CACHE_DIRECTORY = "catalog";
+
+    /** Most bytes the cached catalogs may take up, unless only the newest one is left. */
+    private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final URL mUrl;
+    private final CatalogCache mCache;
+
+    /** Pages over the cached body once it was revalidated. */
+    @Nullable private LocalCatalogSource mBody;
+
+    HttpCatalogSource(URL url, CatalogCache cache) {
+        mUrl = url;
+        mCache = cache;
+    }
+
+    /**
+     * Returns a source of the catalog at a URL, cached in the app's cache directory.
+     *
+     * @param context used for locating the cache directory.
+     * @param url of the catalog, may be empty.
+     * @return the source, or null if the URL is empty or malformed.
+     */
+    @Nullable
+    public static HttpCatalogSource create(Context context, String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        try {
+            return new HttpCatalogSource(
+                    new URL(url),
+                    new CatalogCache(
+                            new File(context.getCacheDir(), CACHE_DIRECTORY), MAX_CACHE_BYTES));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Invalid catalog URL " + url, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized Page fetchPage(@Nullable String cursor, int pageSize) throws IOException {
+        if (mBody == null) {
+            mBody = new LocalCatalogSource(revalidate());
+        }
+        return mBody.fetchPage(cursor, pageSize);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mBody != null) {
+            mBody.close();
+        }
+    }
+
+    /** Brings the cached catalog up to date if the server can be reached, and returns its file. */
+    private File revalidate() throws IOException {
+        String url = mUrl.toString();
+        CatalogCache.Entry cached = mCache.get(url);
+        long start = SystemClock.elapsedRealtime();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) mUrl.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            // Asked for explicitly, HttpURLConnection leaves decoding to the caller.
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (cached != null && cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getETag());
+            }
+            if (cached != null && cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                connection.getInputStream().close();
+                mCache.touch(cached);
+                Log.d(
+                        TAG,
+                        "Catalog not modified in "
+                                + (SystemClock.elapsedRealtime() - start)
+                                + " ms");
+                return cached.getBody();
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode + " from " + url);
+            }
+
+            CatalogCache.Entry entry;
+            try (InputStream in = connection.getInputStream()) {
+                InputStream body =
+                        "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                                ? new GZIPInputStream(in)
+                                : in;
+                entry =
+                        mCache.put(
+                                url,
+                                body,
+                                connection.getHeaderField("ETag"),
+                                connection.getHeaderField("Last-Modified"));
+            }
+            Log.d(
+                    TAG,
+                    "Fetched "
+                            + entry.getBody().length()
+                            + " bytes of catalog in "
+                            + (SystemClock.elapsedRealtime() - start)
+                            + " ms");
+            return entry.getBody();
+        } catch (IOException e) {
+            if (connection != null) {
+                // Do not hand a connection in an unknown state back to the pool.
+                connection.disconnect();
+            }
+            if (cached == null) {
+                throw e;
+            }
+            Log.w(TAG, "Could not revalidate the catalog, serving the cached copy", e);
+            return cached.getBody();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages over a list of movies that is already in memory, starting at any movie and wrapping around
+ * to the ones before it. The cursor is the index of a movie within the pass. Only the movies of a
+ * page are copied, so fetching the first few costs the same however long the list is.
+ */
+final class ListCatalogSource implements CatalogSource {
+
+    private final List<Movie> mMovies;
+    private final int mOffset;
+
+    ListCatalogSource(List<Movie> movies) {
+        this(movies, 0);
+    }
+
+    /**
+     * @param movies to page over.
+     * @param offset index of the movie that a pass starts at.
+     */
+    ListCatalogSource(List<Movie> movies, int offset) {
+        mMovies = movies;
+        mOffset = movies.isEmpty() ? 0 : offset % movies.size();
+    }
+
+    @Override
+    public Page fetchPage(@Nullable String cursor, int pageSize) {
+        int start = cursor == null ? 0 : Integer.parseInt(cursor);
+        int end = Math.min(mMovies.size(), start + pageSize);
+        List<Movie> page = new ArrayList<>(end - start);
+        for (int i = start; i < end; ++i) {
+            page.add(new Movie(mMovies.get((mOffset + i) % mMovies.size())));
+        }
+        return new Page(page, end == mMovies.size() ? null : String.valueOf(end));
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.example.android.tv.recommendations.util.MovieTypeAdapter;
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a catalog from a JSON array of movies in a file on the device, in the format written by
+ * {@link MovieTypeAdapter}, so large catalogs can be tried out without a network.
+ *
+ * <p>Movies without an id get one from {@link MockMovieService#createMovieId(String)}. The cursor
+ * is the index of the next movie. The reader of a pass stays open between pages, so fetching the
+ * pages in order parses the file once. A page fetched out of order starts a new pass and skips the
+ * movies before it without decoding them.
+ */
+public final class LocalCatalogSource implements CatalogSource {
+
+    private static final String TAG = "LocalCatalogSource";
+
+    /**
+     * Name of the catalog file in the app's external files directory, where it can be pushed to
+     * with adb without root.
+     */
+    public static final String FILE_NAME = "catalog.json";
+
+    private final File mFile;
+    private final MovieTypeAdapter mAdapter = new MovieTypeAdapter();
+
+    /** Reader of the pass in progress, positioned before the movie at {@link #mPosition}. */
+    @Nullable private JsonReader mReader;
+
+    private int mPosition;
+
+    public LocalCatalogSource(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the source of the catalog file that was pushed to the device.
+     *
+     * @param context used for locating the external files directory.
+     * @return the source, or null if there is no catalog file.
+     */
+    @Nullable
+    public static LocalCatalogSource find(Context context) {
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, FILE_NAME);
+        return file.isFile() ? new LocalCatalogSource(file) : null;
+    }
+
+    @Override
+    public synchronized Page fetchPage(@Nullable String cursor, int pageSize) throws IOException {
+        int start;
+        try {
+            start = cursor == null ? 0 : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid cursor " + cursor, e);
+        }
+        try {
+            if (mReader == null || mPosition != start) {
+                open(start);
+            }
+            List<Movie> movies = new ArrayList<>(pageSize);
+            while (movies.size() < pageSize && mReader.hasNext()) {
+                Movie movie = mAdapter.read(mReader);
+                ++mPosition;
+                if (movie == null) {
+                    continue;
+                }
+                if (movie.getId() == 0 && movie.getVideoUrl() != null) {
+                    // Derive a left out id the way the mock catalog does, so it is stable too.
+                    movie.setId(MockMovieService.createMovieId(movie.getVideoUrl()));
+                }
+                movies.add(movie);
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                close();
+                return new Page(movies, null);
+            }
+            return new Page(movies, String.valueOf(mPosition));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // A malformed file fails with one of the unchecked exceptions of the reader. Whatever
+            // was read of the pass is unusable, start over on the next fetch.
+            close();
+            throw new IOException("Could not read " + mFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mReader == null) {
+            return;
+        }
+        try {
+            mReader.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close " + mFile, e);
+        }
+        mReader = null;
+    }
+
+    private void open(int start) throws IOException {
+        close();
+        Log.d(TAG, "Reading " + mFile + " from movie " + start);
+        mReader =
+                new JsonReader(
+                        new BufferedReader(
+                                new InputStreamReader(
+                                        new FileInputStream(mFile), StandardCharsets.UTF_8)));
+        mReader.beginArray();
+        for (mPosition = 0; mPosition < start && mReader.hasNext(); ++mPosition) {
+            mReader.skipValue();
+        }
+    }
+}
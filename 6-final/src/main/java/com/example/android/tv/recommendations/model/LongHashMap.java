@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive {@code long} keys.
+ *
+ * <p>Unlike {@code HashMap<Long, V>}, lookups do not box the key and do not allocate. Collisions
+ * are resolved by linear probing and removals shift the following entries back, so no tombstones
+ * are needed. Not thread safe.
+ *
+ * @param <V> the type of the mapped values.
+ */
+final class LongHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    LongHashMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+    }
+
+    /** Creates a copy of another map. The values themselves are not copied. */
+    LongHashMap(LongHashMap<V> other) {
+        mKeys = other.mKeys.clone();
+        mValues = other.mValues.clone();
+        mSize = other.mSize;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /** @return the keys of the map in no particular order. */
+    long[] keys() {
+        long[] keys = new long[mSize];
+        int count = 0;
+        for (int slot = 0; slot < mKeys.length; ++slot) {
+            if (mValues[slot] != null) {
+                keys[count++] = mKeys[slot];
+            }
+        }
+        return keys;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key) & mask; mValues[slot] != null; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) {
+                return (V) mValues[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the key to a non-null value.
+     *
+     * @return the previous value of the key or null if there was none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        for (; mValues[slot] != null; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) {
+                V previous = (V) mValues[slot];
+                mValues[slot] = value;
+                return previous;
+            }
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize * 2 > mKeys.length) {
+            resize(mKeys.length * 2);
+        }
+        return null;
+    }
+
+    /** @return the removed value or null if the key was not mapped. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        for (; mValues[slot] != null; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) {
+                V previous = (V) mValues[slot];
+                deleteSlot(slot);
+                mSize--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    private void deleteSlot(int slot) {
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; mValues[next] != null; next = (next + 1) & mask) {
+            int home = hash(mKeys[next]) & mask;
+            // Move the entry into the hole unless its home slot lies cyclically in (hole, next].
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mValues[hole] = mValues[next];
+                hole = next;
+            }
+        }
+        mValues[hole] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] != null) {
+                int slot = hash(keys[i]) & mask;
+                while (mValues[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        // Spread the bits so that sequential ids do not cluster.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,1479 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import com.example.android.tv.recommendations.util.SharedPreferencesHelper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores movies in a single memory-mapped file so that reads are direct offset lookups instead of
+ * parsing every record.
+ *
+ * <p>The file is laid out as:
+ *
+ * <pre>
+ * header        | magic (int) | version (int) | channel count (int) | movie count (int)
+ *               | next generation (long) | flags (int) |
+ * channel table | channel id (long) | generation (long) | first index entry (int)
+ *               | movie count (int) | segment offset (int) | segment length (int) |
+ *               sorted by channel id
+ * movie index   | movie id (long) | record offset (int) | record length (int) |
+ *               sorted by movie id within each channel
+ * segments      | content: string dictionary, then the content records |
+ *               | per channel: the membership records in saved order |
+ * </pre>
+ *
+ * <p>A movie is usually a member of several channels, so its content is stored once, in the
+ * segment of the reserved {@link #CONTENT_CHANNEL_ID}. The segment of a channel only holds its
+ * membership records: the movie id, and the program id and watch next id of the movie in that
+ * channel. A read looks the content of each member up in the content segment's index, and a fix to
+ * the metadata of a movie is a single write to the content segment.
+ *
+ * <p>Movies tend to repeat the same description, category and studio, and their URLs share long
+ * prefixes. Every string that occurs more than once, and every prefix up to the last '/' that
+ * several strings share, is stored once in the dictionary at the start of the content segment.
+ * Records refer to a dictionary entry by index and only store the remaining suffix. The dictionary
+ * is decoded and interned once per segment, so the movies read from it share the same string
+ * instances.
+ *
+ * <p>Writes rebuild the file next to the current one and atomically rename it into place. Segments
+ * of untouched channels are copied as raw bytes. Content that is already stored is copied as well,
+ * since new dictionary entries are only ever appended, so a write only encodes the movies that are
+ * new or changed. Content that no channel refers to any more is dropped when orphaned channels are
+ * deleted. Readers keep using the previous mapping until the new one is published.
+ *
+ * <p>Changes that only touch the program id or watch next id of stored movies are appended to the
+ * channel's {@link MovieJournal} instead, and replayed over the segment when it is read. Every
+ * rewrite of a segment gives it a new generation, which invalidates the journal it folded in. Once
+ * a journal grows past {@link #COMPACTION_THRESHOLD} records it is compacted into a new segment on
+ * a background thread.
+ *
+ * <p>Subscriptions are few and small, so they stay in {@link SharedPreferencesHelper}.
+ */
+final class MappedMovieStore implements CatalogStore {
+
+    private static final String TAG = "MappedMovieStore";
+
+    private static final String FILE_NAME = "catalog.bin";
+    private static final String JOURNAL_DIRECTORY = "catalog-journal";
+
+    private static final int MAGIC = 0x54565243; // "TVRC"
+    /** Format of the file. A file in any other format is ignored. */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 28;
+    private static final int HEADER_CHANNEL_COUNT = 8;
+    private static final int HEADER_MOVIE_COUNT = 12;
+    private static final int HEADER_NEXT_GENERATION = 16;
+    private static final int HEADER_FLAGS = 24;
+
+    /** Set in the header flags once the legacy catalog has been imported. */
+    private static final int FLAG_LEGACY_CATALOG_IMPORTED = 1;
+
+    private static final int CHANNEL_ENTRY_SIZE = 32;
+    private static final int CHANNEL_GENERATION = 8;
+    private static final int CHANNEL_FIRST_INDEX = 16;
+    private static final int CHANNEL_MOVIE_COUNT = 20;
+    private static final int CHANNEL_SEGMENT_OFFSET = 24;
+    private static final int CHANNEL_SEGMENT_LENGTH = 28;
+
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Channel table entry of the segment that holds the content of every movie. Sorts before every
+     * channel. The program ids and watch next ids of its records are not used.
+     */
+    private static final long CONTENT_CHANNEL_ID = Long.MIN_VALUE;
+
+    @VisibleForTesting static final int COMPACTION_THRESHOLD = 256;
+
+    /** Most dictionary entries, and most candidates for them, learned while importing a stream. */
+    private static final int MAX_LEARNED_ENTRIES = 4096;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /** Suffixes of the temporary files written next to the catalog file. */
+    private static final String IMPORT_SUFFIX = ".import";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int NULL_STRING = -1;
+    static final int STRING_FIELD_COUNT = 7;
+    /**
+     * Size of the id, program id and watch next id at the start of every record, and of a whole
+     * membership record.
+     */
+    private static final int RECORD_IDS_SIZE = 24;
+
+    private static MappedMovieStore sInstance;
+
+    private final Context mContext;
+    private final File mFile;
+    private final File mJournalDirectory;
+    private final Executor mCompactionExecutor = Executors.newSingleThreadExecutor();
+
+    /** Read-only view of the current file. Replaced, never mutated, on every write. */
+    private ByteBuffer mBuffer;
+
+    /** Journals of the channels read so far. Guarded by this. */
+    private final LongHashMap<MovieJournal> mJournals = new LongHashMap<>();
+
+    /** Decoded dictionary of the content segment, once read. Guarded by this. */
+    @Nullable private Dictionary mContentDictionary;
+
+    /**
+     * Opens a store over a catalog file. Use {@link #getInstance} outside of tests, only one store
+     * may use a file at a time.
+     *
+     * @param context used for the subscriptions, which are kept in shared preferences.
+     * @param file of the catalog, created on the first write.
+     * @param journalDirectory that exists and only this store writes to.
+     */
+    @VisibleForTesting
+    MappedMovieStore(Context context, File file, File journalDirectory) {
+        mContext = context;
+        mFile = file;
+        mJournalDirectory = journalDirectory;
+        mBuffer = map(file);
+        deleteTempFiles();
+    }
+
+    /**
+     * Returns the store backed by the catalog file in the app's private files directory.
+     *
+     * @param context used for locating the files directory.
+     * @return the process wide store.
+     */
+    static synchronized MappedMovieStore getInstance(Context context) {
+        if (sInstance == null) {
+            File journalDirectory = new File(context.getFilesDir(), JOURNAL_DIRECTORY);
+            if (!journalDirectory.isDirectory() && !journalDirectory.mkdirs()) {
+                Log.e(TAG, "Could not create " + journalDirectory);
+            }
+            sInstance =
+                    new MappedMovieStore(
+                            context.getApplicationContext(),
+                            new File(context.getFilesDir(), FILE_NAME),
+                            journalDirectory);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public synchronized boolean isLegacyCatalogImported() {
+        return (mBuffer.getInt(HEADER_FLAGS) & FLAG_LEGACY_CATALOG_IMPORTED) != 0;
+    }
+
+    /** Rewrites the header, the segments are copied as they are. */
+    @Override
+    public synchronized void setLegacyCatalogImported() {
+        int flags = mBuffer.getInt(HEADER_FLAGS);
+        if ((flags & FLAG_LEGACY_CATALOG_IMPORTED) != 0) {
+            return;
+        }
+        try {
+            rewrite(flags | FLAG_LEGACY_CATALOG_IMPORTED);
+        } catch (IOException e) {
+            // The legacy catalog is imported again the next time the store is opened.
+            Log.e(TAG, "Could not record the import of the legacy catalog", e);
+        }
+    }
+
+    @Override
+    public List<Subscription> readSubscriptions() {
+        return SharedPreferencesHelper.readSubscriptions(mContext);
+    }
+
+    @Override
+    public void writeSubscriptions(List<Subscription> subscriptions) {
+        SharedPreferencesHelper.storeSubscriptions(mContext, subscriptions);
+    }
+
+    /**
+     * Returns the movies of a channel in the order they were saved.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return a mutable list of movies or an empty list if none exist.
+     */
+    @Override
+    public synchronized List<Movie> readMovies(long channelId) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int channel = findChannel(buffer, channelId);
+        if (channel == -1) {
+            return new ArrayList<>();
+        }
+        int entry = channelEntryOffset(buffer, channel);
+        int count = buffer.getInt(entry + CHANNEL_MOVIE_COUNT);
+        int segmentOffset = buffer.getInt(entry + CHANNEL_SEGMENT_OFFSET);
+
+        MovieJournal journal = getJournal(buffer, channel);
+        List<Movie> movies = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Movie movie = readMember(buffer, segmentOffset + i * RECORD_IDS_SIZE);
+            if (movie != null) {
+                journal.apply(movie);
+                movies.add(movie);
+            }
+        }
+        return movies;
+    }
+
+    /**
+     * Reads the membership records of a channel, without looking up the content of the movies.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return the id columns in saved order, empty if the channel has no movies.
+     */
+    @Override
+    public synchronized MovieIds readMovieIds(long channelId) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int channel = findChannel(buffer, channelId);
+        if (channel == -1) {
+            return new MovieIds(0);
+        }
+        int entry = channelEntryOffset(buffer, channel);
+        int count = buffer.getInt(entry + CHANNEL_MOVIE_COUNT);
+
+        MovieJournal journal = getJournal(buffer, channel);
+        MovieIds ids = new MovieIds(count);
+        buffer.position(buffer.getInt(entry + CHANNEL_SEGMENT_OFFSET));
+        for (int i = 0; i < count; ++i) {
+            ids.set(i, buffer.getLong(), buffer.getLong(), buffer.getLong());
+            journal.apply(ids, i);
+        }
+        return ids;
+    }
+
+    /**
+     * Finds a movie of a channel by binary searching the channel's part of the movie index.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @return the movie or null if it does not exist.
+     */
+    @Nullable
+    @Override
+    public synchronized Movie findMovie(long channelId, long movieId) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        Movie movie = findStoredMovie(buffer, channelId, movieId);
+        if (movie != null) {
+            getJournal(buffer, findChannel(buffer, channelId)).apply(movie);
+        }
+        return movie;
+    }
+
+    /**
+     * Points a view at a movie of a channel, found by binary searching the channel's part of the
+     * movie index. Nothing is decoded until the getters of the view are called.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @param view to point at the movie.
+     * @return true if the movie exists.
+     */
+    @Override
+    public synchronized boolean findMovie(long channelId, long movieId, MovieView view) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int channel = findChannel(buffer, channelId);
+        int record = channel == -1 ? -1 : findRecord(buffer, channel, movieId);
+        return record != -1 && pointView(view, buffer, record, getJournal(buffer, channel));
+    }
+
+    /**
+     * Points a view at the content a membership record refers to, with the ids of the member.
+     *
+     * @param buffer that the view reads from, only read at absolute offsets by the caller.
+     * @return false if the content of the member is missing.
+     */
+    private boolean pointView(MovieView view, ByteBuffer buffer, int member, MovieJournal journal) {
+        long movieId = buffer.getLong(member);
+        long[] journaledIds = journal.find(movieId);
+        long programId = journaledIds != null ? journaledIds[0] : buffer.getLong(member + 8);
+        long watchNextId = journaledIds != null ? journaledIds[1] : buffer.getLong(member + 16);
+        int record = findContent(buffer, movieId);
+        if (record == -1) {
+            Log.w(TAG, "No content stored for movie " + movieId);
+            return false;
+        }
+        view.reset(buffer, record, getContentDictionary(buffer), programId, watchNextId);
+        return true;
+    }
+
+    /**
+     * Stores changed program ids and watch next ids of movies that are already stored. Falls back
+     * to replacing the whole channel with {@code allMovies} if any other field of an updated movie
+     * changed, or if it is not stored yet.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param updatedMovies that changed since they were last stored.
+     * @param allMovies every movie of the channel, including the updated ones.
+     */
+    @Override
+    public synchronized void updateMovies(
+            final long channelId, List<Movie> updatedMovies, List<Movie> allMovies) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        for (Movie movie : updatedMovies) {
+            Movie stored = findStoredMovie(buffer, channelId, movie.getId());
+            if (stored == null || !stored.hasSameContent(movie)) {
+                writeMovies(channelId, allMovies);
+                return;
+            }
+        }
+
+        MovieJournal journal = getJournal(buffer, findChannel(buffer, channelId));
+        try {
+            journal.append(updatedMovies);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not journal changes for channel " + channelId, e);
+            writeMovies(channelId, allMovies);
+            return;
+        }
+        int previousSize = journal.size() - updatedMovies.size();
+        if (previousSize < COMPACTION_THRESHOLD && journal.size() >= COMPACTION_THRESHOLD) {
+            mCompactionExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            compact(channelId);
+                        }
+                    });
+        }
+    }
+
+    /** Waits until the compactions scheduled so far are done. */
+    @VisibleForTesting
+    void awaitCompactions() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mCompactionExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+        done.await();
+    }
+
+    /** Folds the journal of a channel into a new segment. */
+    private synchronized void compact(long channelId) {
+        MovieJournal journal = mJournals.get(channelId);
+        if (journal == null || journal.size() < COMPACTION_THRESHOLD) {
+            // Already folded in by a rewrite of the channel.
+            return;
+        }
+        Log.d(TAG, "Compacting " + journal.size() + " journal records of channel " + channelId);
+        writeMovies(channelId, readMovies(channelId));
+    }
+
+    /**
+     * Removes the segments of orphaned channels together with the content of movies that no
+     * remaining channel refers to, in a single rewrite of the file. Then deletes the journals of
+     * orphans, including journals left behind by channels that are no longer stored.
+     *
+     * @return how much smaller the catalog file and the journals got.
+     */
+    @Override
+    public synchronized long deleteOrphanedChannels(Set<Long> channelIds) {
+        long sizeBefore = getStorageSize();
+        ByteBuffer buffer = mBuffer.duplicate();
+        // Channel entries are sorted by id, and so are the orphans.
+        long[] orphans = new long[channelCount(buffer)];
+        int orphanCount = 0;
+        for (int channel = 0; channel < channelCount(buffer); ++channel) {
+            long channelId = buffer.getLong(channelEntryOffset(buffer, channel));
+            if (channelId != CONTENT_CHANNEL_ID && !channelIds.contains(channelId)) {
+                orphans[orphanCount++] = channelId;
+            }
+        }
+        try {
+            deleteChannels(Arrays.copyOf(orphans, orphanCount));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not delete orphaned channels", e);
+        }
+        File[] journals = mJournalDirectory.listFiles();
+        if (journals != null) {
+            for (File journal : journals) {
+                String name = journal.getName();
+                if (!name.endsWith(MovieJournal.FILE_SUFFIX)) {
+                    continue;
+                }
+                long channelId;
+                try {
+                    channelId =
+                            Long.parseLong(
+                                    name.substring(
+                                            0, name.length() - MovieJournal.FILE_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (!channelIds.contains(channelId)) {
+                    mJournals.remove(channelId);
+                    if (!journal.delete()) {
+                        Log.e(TAG, "Could not delete " + journal);
+                    }
+                }
+            }
+        }
+        return sizeBefore - getStorageSize();
+    }
+
+    private long getStorageSize() {
+        long size = mFile.length();
+        File[] journals = mJournalDirectory.listFiles();
+        if (journals != null) {
+            for (File journal : journals) {
+                size += journal.length();
+            }
+        }
+        return size;
+    }
+
+    @Nullable
+    private Movie findStoredMovie(ByteBuffer buffer, long channelId, long movieId) {
+        int channel = findChannel(buffer, channelId);
+        int record = channel == -1 ? -1 : findRecord(buffer, channel, movieId);
+        return record == -1 ? null : readMember(buffer, record);
+    }
+
+    /**
+     * Reads the content a membership record refers to, with the ids of the membership record.
+     *
+     * @return the movie or null if its content is missing.
+     */
+    @Nullable
+    private Movie readMember(ByteBuffer buffer, int member) {
+        long movieId = buffer.getLong(member);
+        int record = findContent(buffer, movieId);
+        if (record == -1) {
+            Log.w(TAG, "No content stored for movie " + movieId);
+            return null;
+        }
+        buffer.position(record);
+        Movie movie = readMovie(buffer, getContentDictionary(buffer));
+        movie.setProgramId(buffer.getLong(member + 8));
+        movie.setWatchNextId(buffer.getLong(member + 16));
+        return movie;
+    }
+
+    /** Returns the offset of the content record of a movie, or -1 if it is not stored. */
+    private static int findContent(ByteBuffer buffer, long movieId) {
+        int content = findChannel(buffer, CONTENT_CHANNEL_ID);
+        return content == -1 ? -1 : findRecord(buffer, content, movieId);
+    }
+
+    /** Returns the offset of the record of a movie in a channel, or -1 if it is not stored. */
+    private static int findRecord(ByteBuffer buffer, int channel, long movieId) {
+        int indexEntry = findIndexEntry(buffer, channel, movieId);
+        return indexEntry == -1 ? -1 : buffer.getInt(indexEntry + 8);
+    }
+
+    /** Returns the offset of the index entry of a movie in a channel, or -1 if it is not stored. */
+    private static int findIndexEntry(ByteBuffer buffer, int channel, long movieId) {
+        int entry = channelEntryOffset(buffer, channel);
+        int low = buffer.getInt(entry + CHANNEL_FIRST_INDEX);
+        int high = low + buffer.getInt(entry + CHANNEL_MOVIE_COUNT) - 1;
+        int indexStart = indexOffset(buffer);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int indexEntry = indexStart + mid * INDEX_ENTRY_SIZE;
+            long midId = buffer.getLong(indexEntry);
+            if (midId < movieId) {
+                low = mid + 1;
+            } else if (midId > movieId) {
+                high = mid - 1;
+            } else {
+                return indexEntry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the movies of a channel. An empty list removes the channel's segment. If the content
+     * of every movie is already stored, only the channel's membership records are written.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    @Override
+    public synchronized void writeMovies(long channelId, List<Movie> movies) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int content = findChannel(buffer, CONTENT_CHANNEL_ID);
+        String[] dictionary = content == -1 ? null : getContentDictionary(buffer);
+        for (Movie movie : movies) {
+            int record = content == -1 ? -1 : findRecord(buffer, content, movie.getId());
+            if (record != -1) {
+                buffer.position(record);
+            }
+            if (record == -1 || !readMovie(buffer, dictionary).hasSameContent(movie)) {
+                try {
+                    importMovies(channelId, movies.iterator());
+                } catch (UncheckedIOException e) {
+                    Log.e(TAG, "Could not write movies for channel " + channelId, e);
+                }
+                return;
+            }
+        }
+        try {
+            Segment members = new Segment(channelId, null);
+            LongHashMap<Boolean> written = new LongHashMap<>(movies.size());
+            for (Movie movie : movies) {
+                if (written.put(movie.getId(), Boolean.TRUE) == null) {
+                    members.add(movie.getId(), encodeMember(movie));
+                }
+            }
+            rewrite(members);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write movies for channel " + channelId, e);
+        }
+    }
+
+    /**
+     * Replaces the movies of a channel with the movies of a stream, together with their content.
+     *
+     * <p>The stream is read without holding the lock on this, so reads and writes of other channels
+     * go on while it is fetched and parsed. Content records are staged in a temporary file as they
+     * are read, encoded against the stored dictionary extended with what is learned along the way,
+     * capped at {@link #MAX_LEARNED_ENTRIES}. Only the membership records and index entries are
+     * kept in memory. The new file is then written next to the current one, and the lock is only
+     * taken to rename it into place. If another write replaced the file in the meantime, the new
+     * file is written again against it while holding the lock.
+     *
+     * <p>The file is left unchanged if the stream fails or the file cannot be written, which is
+     * thrown as {@link UncheckedIOException}.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    @Override
+    public void importMovies(long channelId, Iterator<Movie> movies) {
+        ByteBuffer base;
+        String[] dictionary;
+        synchronized (this) {
+            base = mBuffer;
+            dictionary = getContentDictionary(base.duplicate());
+        }
+        // Stored records stay valid, since entries are only appended to the seeded dictionary.
+        SegmentEncoder encoder =
+                dictionary == null ? new SegmentEncoder() : new SegmentEncoder(dictionary);
+        File records = null;
+        Segment staged = null;
+        File file = null;
+        try {
+            records = createTempFile(IMPORT_SUFFIX);
+            Segment members = new Segment(channelId, null);
+            staged = new Segment(CONTENT_CHANNEL_ID, records);
+            LongHashMap<Boolean> written = new LongHashMap<>();
+            while (movies.hasNext()) {
+                Movie movie = movies.next();
+                if (written.put(movie.getId(), Boolean.TRUE) == null) {
+                    members.add(movie.getId(), encodeMember(movie));
+                    staged.add(movie.getId(), encoder.encode(movie));
+                }
+            }
+            long generation = getContentGeneration(base);
+            file = writeImport(base, written, members, staged, encoder, generation);
+            synchronized (this) {
+                if (mBuffer != base) {
+                    // Another write landed while the stream was read, so merge with it instead.
+                    delete(file);
+                    file = writeImport(mBuffer, written, members, staged, encoder, generation);
+                }
+                install(file, members, staged);
+            }
+        } catch (IOException e) {
+            if (file != null) {
+                delete(file);
+            }
+            throw new UncheckedIOException("Could not import movies for channel " + channelId, e);
+        } finally {
+            if (staged != null) {
+                staged.close();
+            }
+            if (records != null) {
+                delete(records);
+            }
+        }
+    }
+
+    /**
+     * Writes a file with the staged movies of an import to a temporary file, along with the stored
+     * content that other channels still refer to. The staged records are encoded again if the
+     * content segment was rewritten since they were staged, as its dictionary may differ.
+     *
+     * @param buffer of the file that the import is merged with.
+     * @param written ids of the imported movies.
+     * @param members of the imported channel.
+     * @param staged content records of the imported movies.
+     * @param encoder that the staged records were encoded with.
+     * @param generation of the content segment that the encoder was seeded from, or -1.
+     * @return the new file, to be installed while {@code buffer} is still the current file.
+     */
+    private File writeImport(
+            ByteBuffer buffer,
+            LongHashMap<Boolean> written,
+            Segment members,
+            Segment staged,
+            SegmentEncoder encoder,
+            long generation)
+            throws IOException {
+        buffer = buffer.duplicate();
+        String[] stagedDictionary = null;
+        if (getContentGeneration(buffer) != generation) {
+            stagedDictionary = encoder.getEntries();
+            String[] dictionary;
+            synchronized (this) {
+                dictionary = getContentDictionary(buffer);
+            }
+            encoder = dictionary == null ? new SegmentEncoder() : new SegmentEncoder(dictionary);
+        }
+        File records = createTempFile(IMPORT_SUFFIX);
+        File file = null;
+        Segment content = null;
+        try {
+            content = new Segment(CONTENT_CHANNEL_ID, records);
+            try (DataInputStream in = staged.openRecords()) {
+                for (int i = 0; i < staged.mCount; ++i) {
+                    byte[] record = new byte[staged.getLength(i)];
+                    in.readFully(record);
+                    if (stagedDictionary != null) {
+                        Movie movie = readMovie(ByteBuffer.wrap(record), stagedDictionary);
+                        record = encoder.encode(movie);
+                    }
+                    content.add(staged.getId(i), record);
+                }
+            }
+            int storedContent = findChannel(buffer, CONTENT_CHANNEL_ID);
+            if (storedContent != -1) {
+                LongHashMap<Boolean> referenced = findReferencedMovies(buffer, members.mChannelId);
+                int entry = channelEntryOffset(buffer, storedContent);
+                int count = buffer.getInt(entry + CHANNEL_MOVIE_COUNT);
+                int indexEntry =
+                        indexOffset(buffer)
+                                + buffer.getInt(entry + CHANNEL_FIRST_INDEX) * INDEX_ENTRY_SIZE;
+                for (int i = 0; i < count; ++i, indexEntry += INDEX_ENTRY_SIZE) {
+                    long movieId = buffer.getLong(indexEntry);
+                    if (referenced.get(movieId) != null && written.get(movieId) == null) {
+                        byte[] record = new byte[buffer.getInt(indexEntry + 12)];
+                        buffer.position(buffer.getInt(indexEntry + 8));
+                        buffer.get(record);
+                        content.add(movieId, record);
+                    }
+                }
+            }
+            content.mDictionary = encoder.encodeDictionary();
+            file = createTempFile(TMP_SUFFIX);
+            writeFile(buffer, buffer.getInt(HEADER_FLAGS), file, content, members);
+            return file;
+        } catch (IOException e) {
+            if (file != null) {
+                delete(file);
+            }
+            throw e;
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+            delete(records);
+        }
+    }
+
+    /**
+     * Removes the segments of channels and rebuilds the content segment without the movies that no
+     * remaining channel refers to, in a single rewrite of the file. Dictionary entries of the
+     * dropped movies are dropped as well, since the remaining records are encoded again from
+     * scratch.
+     *
+     * @param channelIds of the channels to be removed, sorted.
+     */
+    private void deleteChannels(long[] channelIds) throws IOException {
+        ByteBuffer buffer = mBuffer.duplicate();
+        int storedContent = findChannel(buffer, CONTENT_CHANNEL_ID);
+        int count =
+                storedContent == -1
+                        ? 0
+                        : buffer.getInt(
+                                channelEntryOffset(buffer, storedContent) + CHANNEL_MOVIE_COUNT);
+        LongHashMap<Boolean> referenced = findReferencedMovies(buffer, channelIds);
+        boolean rebuildContent = referenced.size() < count;
+        if (channelIds.length == 0 && !rebuildContent) {
+            return;
+        }
+        // The content segment sorts before every channel.
+        Segment[] segments = new Segment[channelIds.length + (rebuildContent ? 1 : 0)];
+        for (int i = 0; i < channelIds.length; ++i) {
+            // An empty segment removes its channel.
+            segments[segments.length - channelIds.length + i] = new Segment(channelIds[i], null);
+        }
+        File records = new File(mFile.getPath() + IMPORT_SUFFIX);
+        Segment content = null;
+        try {
+            if (rebuildContent) {
+                Log.d(TAG, "Deleting " + (count - referenced.size()) + " unreferenced movie(s)");
+                String[] dictionary = getContentDictionary(buffer);
+                SegmentEncoder encoder = new SegmentEncoder();
+                content = new Segment(CONTENT_CHANNEL_ID, records);
+                int indexEntry =
+                        indexOffset(buffer)
+                                + buffer.getInt(
+                                                channelEntryOffset(buffer, storedContent)
+                                                        + CHANNEL_FIRST_INDEX)
+                                        * INDEX_ENTRY_SIZE;
+                for (int i = 0; i < count; ++i, indexEntry += INDEX_ENTRY_SIZE) {
+                    long movieId = buffer.getLong(indexEntry);
+                    if (referenced.get(movieId) != null) {
+                        buffer.position(buffer.getInt(indexEntry + 8));
+                        content.add(movieId, encoder.encode(readMovie(buffer, dictionary)));
+                    }
+                }
+                content.mDictionary = encoder.encodeDictionary();
+                segments[0] = content;
+            }
+            rewrite(segments);
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+            delete(records);
+        }
+    }
+
+    /**
+     * Returns the ids of the movies that the membership records of every channel other than the
+     * excluded ones refer to.
+     *
+     * @param excludedChannelIds sorted.
+     */
+    private static LongHashMap<Boolean> findReferencedMovies(
+            ByteBuffer buffer, long... excludedChannelIds) {
+        LongHashMap<Boolean> referenced = new LongHashMap<>();
+        for (int channel = 0; channel < channelCount(buffer); ++channel) {
+            int entry = channelEntryOffset(buffer, channel);
+            if (!isChannel(buffer, channel)
+                    || Arrays.binarySearch(excludedChannelIds, buffer.getLong(entry)) >= 0) {
+                continue;
+            }
+            int offset = buffer.getInt(entry + CHANNEL_SEGMENT_OFFSET);
+            int count = buffer.getInt(entry + CHANNEL_MOVIE_COUNT);
+            for (int i = 0; i < count; ++i, offset += RECORD_IDS_SIZE) {
+                referenced.put(buffer.getLong(offset), Boolean.TRUE);
+            }
+        }
+        return referenced;
+    }
+
+    private static byte[] encodeMember(Movie movie) {
+        return ByteBuffer.allocate(RECORD_IDS_SIZE)
+                .putLong(movie.getId())
+                .putLong(movie.getProgramId())
+                .putLong(movie.getWatchNextId())
+                .array();
+    }
+
+    /**
+     * Rewrites the file with new segments, streaming it to a temporary file that is renamed into
+     * place. An empty segment removes its channel.
+     *
+     * @param segments sorted by channel id.
+     */
+    private void rewrite(Segment... segments) throws IOException {
+        rewrite(mBuffer.getInt(HEADER_FLAGS), segments);
+    }
+
+    /**
+     * Rewrites the file with new header flags and new segments.
+     *
+     * @param flags of the new header.
+     * @param segments sorted by channel id.
+     */
+    private void rewrite(int flags, Segment... segments) throws IOException {
+        File tmp = new File(mFile.getPath() + TMP_SUFFIX);
+        writeFile(mBuffer, flags, tmp, segments);
+        install(tmp, segments);
+    }
+
+    /**
+     * Writes a file that replaces the segments of an old file with new ones, and keeps every other
+     * channel of the old file.
+     *
+     * @param buffer of the old file.
+     * @param flags of the new header.
+     * @param file to write to, synced before this returns.
+     * @param segments sorted by channel id. An empty segment removes its channel.
+     */
+    private static void writeFile(ByteBuffer buffer, int flags, File file, Segment... segments)
+            throws IOException {
+        ByteBuffer old = buffer.duplicate();
+        int oldChannelCount = channelCount(old);
+        int oldIndexStart = indexOffset(old);
+        long generation = old.getLong(HEADER_NEXT_GENERATION);
+
+        // Collect the channels that survive the write, in channel id order. Each one is either a
+        // new segment or an old channel.
+        long[] channelIds = new long[oldChannelCount + segments.length];
+        Segment[] newSegments = new Segment[channelIds.length];
+        int[] oldChannels = new int[channelIds.length];
+        int channelCount = 0;
+        int movieCount = 0;
+        int channel = 0;
+        int next = 0;
+        while (channel < oldChannelCount || next < segments.length) {
+            long oldId =
+                    channel < oldChannelCount ? old.getLong(channelEntryOffset(old, channel)) : 0;
+            if (channel == oldChannelCount
+                    || (next < segments.length && segments[next].mChannelId <= oldId)) {
+                Segment segment = segments[next++];
+                if (channel < oldChannelCount && segment.mChannelId == oldId) {
+                    ++channel;
+                }
+                if (segment.mCount > 0) {
+                    channelIds[channelCount] = segment.mChannelId;
+                    newSegments[channelCount] = segment;
+                    oldChannels[channelCount++] = -1;
+                    movieCount += segment.mCount;
+                }
+            } else {
+                channelIds[channelCount] = oldId;
+                oldChannels[channelCount++] = channel;
+                movieCount += old.getInt(channelEntryOffset(old, channel) + CHANNEL_MOVIE_COUNT);
+                ++channel;
+            }
+        }
+
+        int indexStart = HEADER_SIZE + channelCount * CHANNEL_ENTRY_SIZE;
+        long dataStart = indexStart + (long) movieCount * INDEX_ENTRY_SIZE;
+        long fileLength = dataStart;
+        int[] segmentOffsets = new int[channelCount];
+        int[] segmentLengths = new int[channelCount];
+        for (int i = 0; i < channelCount; ++i) {
+            segmentOffsets[i] = (int) fileLength;
+            long segmentLength =
+                    oldChannels[i] == -1
+                            ? newSegments[i].mDictionary.length
+                                    + (long) newSegments[i].mRecordsLength
+                            : old.getInt(
+                                    channelEntryOffset(old, oldChannels[i])
+                                            + CHANNEL_SEGMENT_LENGTH);
+            fileLength += segmentLength;
+            if (fileLength > Integer.MAX_VALUE) {
+                throw new IOException("Catalog would exceed " + Integer.MAX_VALUE + " bytes");
+            }
+            segmentLengths[i] = (int) segmentLength;
+        }
+
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(stream, COPY_BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(channelCount);
+            out.writeInt(movieCount);
+            out.writeLong(generation + 1);
+            out.writeInt(flags);
+
+            int nextIndexEntry = 0;
+            for (int i = 0; i < channelCount; ++i) {
+                int count;
+                long channelGeneration;
+                if (oldChannels[i] == -1) {
+                    count = newSegments[i].mCount;
+                    channelGeneration = generation;
+                } else {
+                    int oldEntry = channelEntryOffset(old, oldChannels[i]);
+                    count = old.getInt(oldEntry + CHANNEL_MOVIE_COUNT);
+                    channelGeneration = old.getLong(oldEntry + CHANNEL_GENERATION);
+                }
+                out.writeLong(channelIds[i]);
+                out.writeLong(channelGeneration);
+                out.writeInt(nextIndexEntry);
+                out.writeInt(count);
+                out.writeInt(segmentOffsets[i]);
+                out.writeInt(segmentLengths[i]);
+                nextIndexEntry += count;
+            }
+
+            for (int i = 0; i < channelCount; ++i) {
+                if (oldChannels[i] == -1) {
+                    Segment segment = newSegments[i];
+                    segment.writeIndex(out, segmentOffsets[i] + segment.mDictionary.length);
+                    continue;
+                }
+                int oldEntry = channelEntryOffset(old, oldChannels[i]);
+                int count = old.getInt(oldEntry + CHANNEL_MOVIE_COUNT);
+                int oldSegment = old.getInt(oldEntry + CHANNEL_SEGMENT_OFFSET);
+                int oldFirst = old.getInt(oldEntry + CHANNEL_FIRST_INDEX);
+                for (int m = 0; m < count; ++m) {
+                    int from = oldIndexStart + (oldFirst + m) * INDEX_ENTRY_SIZE;
+                    out.writeLong(old.getLong(from));
+                    out.writeInt(old.getInt(from + 8) - oldSegment + segmentOffsets[i]);
+                    out.writeInt(old.getInt(from + 12));
+                }
+            }
+
+            byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+            for (int i = 0; i < channelCount; ++i) {
+                if (oldChannels[i] == -1) {
+                    out.write(newSegments[i].mDictionary);
+                    newSegments[i].writeRecords(out, copyBuffer);
+                    continue;
+                }
+                ByteBuffer oldSegment = old.duplicate();
+                int oldEntry = channelEntryOffset(old, oldChannels[i]);
+                int offset = old.getInt(oldEntry + CHANNEL_SEGMENT_OFFSET);
+                oldSegment.limit(offset + segmentLengths[i]).position(offset);
+                while (oldSegment.hasRemaining()) {
+                    int length = Math.min(copyBuffer.length, oldSegment.remaining());
+                    oldSegment.get(copyBuffer, 0, length);
+                    out.write(copyBuffer, 0, length);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    /**
+     * Renames a file written by {@link #writeFile} into place and maps it. Holds the lock on this.
+     *
+     * @param tmp to be renamed, written against the current file.
+     * @param segments that the file was written with.
+     */
+    private void install(File tmp, Segment... segments) throws IOException {
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Could not rename " + tmp + " to " + mFile);
+        }
+        mBuffer = map(mFile);
+        for (Segment segment : segments) {
+            if (segment.mChannelId == CONTENT_CHANNEL_ID) {
+                mContentDictionary = null;
+            }
+
+            // The new segment contains everything the journal recorded.
+            MovieJournal journal = mJournals.remove(segment.mChannelId);
+            if (journal != null) {
+                journal.delete();
+            }
+        }
+    }
+
+    private MovieJournal getJournal(ByteBuffer buffer, int channel) {
+        int entry = channelEntryOffset(buffer, channel);
+        long channelId = buffer.getLong(entry);
+        long generation = buffer.getLong(entry + CHANNEL_GENERATION);
+        MovieJournal journal = mJournals.get(channelId);
+        if (journal == null || journal.getGeneration() != generation) {
+            journal = MovieJournal.open(mJournalDirectory, channelId, generation);
+            mJournals.put(channelId, journal);
+        }
+        return journal;
+    }
+
+    /** Returns the decoded dictionary of the content segment, or null if there is none. */
+    @Nullable
+    private String[] getContentDictionary(ByteBuffer buffer) {
+        int content = findChannel(buffer, CONTENT_CHANNEL_ID);
+        if (content == -1) {
+            return null;
+        }
+        int entry = channelEntryOffset(buffer, content);
+        long generation = buffer.getLong(entry + CHANNEL_GENERATION);
+        if (mContentDictionary == null || mContentDictionary.mGeneration != generation) {
+            ByteBuffer segment = buffer.duplicate();
+            segment.position(buffer.getInt(entry + CHANNEL_SEGMENT_OFFSET));
+            String[] strings = new String[segment.getInt()];
+            for (int i = 0; i < strings.length; ++i) {
+                strings[i] = decodeUtf8(segment, segment.getInt()).intern();
+            }
+            mContentDictionary = new Dictionary(generation, strings);
+        }
+        return mContentDictionary.mStrings;
+    }
+
+    /**
+     * Returns the generation of the content segment of a file.
+     *
+     * @return the generation, or -1 if the file has no content segment.
+     */
+    private static long getContentGeneration(ByteBuffer buffer) {
+        int content = findChannel(buffer, CONTENT_CHANNEL_ID);
+        return content == -1
+                ? -1
+                : buffer.getLong(channelEntryOffset(buffer, content) + CHANNEL_GENERATION);
+    }
+
+    /** Creates a temporary file next to the catalog file, so it can be renamed over it. */
+    private File createTempFile(String suffix) throws IOException {
+        return File.createTempFile(mFile.getName() + ".", suffix, mFile.getParentFile());
+    }
+
+    /** Deletes the temporary files that an import left behind when the process died. */
+    private void deleteTempFiles() {
+        String prefix = mFile.getName() + ".";
+        File[] files = mFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix)
+                    && (name.endsWith(IMPORT_SUFFIX) || name.endsWith(TMP_SUFFIX))) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Could not delete " + file);
+        }
+    }
+
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return emptyBuffer();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE
+                    || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                Log.e(TAG, "Ignoring unrecognized catalog file " + file);
+                return emptyBuffer();
+            }
+            return buffer;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not map " + file, e);
+            return emptyBuffer();
+        }
+    }
+
+    private static ByteBuffer emptyBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        return buffer;
+    }
+
+    private static int channelCount(ByteBuffer buffer) {
+        return buffer.getInt(HEADER_CHANNEL_COUNT);
+    }
+
+    private static int channelEntryOffset(ByteBuffer buffer, int channel) {
+        return HEADER_SIZE + channel * CHANNEL_ENTRY_SIZE;
+    }
+
+    private static int indexOffset(ByteBuffer buffer) {
+        return channelEntryOffset(buffer, channelCount(buffer));
+    }
+
+    /** Returns false for the entry of the content segment. */
+    private static boolean isChannel(ByteBuffer buffer, int channel) {
+        return buffer.getLong(channelEntryOffset(buffer, channel)) != CONTENT_CHANNEL_ID;
+    }
+
+    private static int findChannel(ByteBuffer buffer, long channelId) {
+        int low = 0;
+        int high = channelCount(buffer) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = buffer.getLong(channelEntryOffset(buffer, mid));
+            if (midId < channelId) {
+                low = mid + 1;
+            } else if (midId > channelId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a content record.
+     *
+     * @param buffer positioned at the start of the record.
+     * @param dictionary of the content segment.
+     * @return the decoded movie.
+     */
+    private static Movie readMovie(ByteBuffer buffer, String[] dictionary) {
+        Movie movie = new Movie();
+        movie.setId(buffer.getLong());
+        movie.setProgramId(buffer.getLong());
+        movie.setWatchNextId(buffer.getLong());
+        movie.setTitle(readString(buffer, dictionary));
+        movie.setDescription(readString(buffer, dictionary));
+        movie.setStudio(readString(buffer, dictionary));
+        movie.setCategory(readString(buffer, dictionary));
+        movie.setVideoUrl(readString(buffer, dictionary));
+        movie.setCardImageUrl(readString(buffer, dictionary));
+        movie.setBackgroundImageUrl(readString(buffer, dictionary));
+        return movie;
+    }
+
+    /**
+     * Reads a string field of a content record.
+     *
+     * @param buffer positioned at the start of the field.
+     * @param dictionary of the content segment.
+     * @return the decoded string.
+     */
+    @Nullable
+    static String readString(ByteBuffer buffer, String[] dictionary) {
+        int prefix = buffer.getInt();
+        if (prefix == NULL_STRING) {
+            return null;
+        }
+        int suffixLength = buffer.getInt();
+        return suffixLength == 0
+                ? dictionary[prefix]
+                : dictionary[prefix] + decodeUtf8(buffer, suffixLength);
+    }
+
+    /**
+     * Finds where each string field of a content record starts, without decoding any of them.
+     *
+     * @param buffer holding the record. Its position is changed.
+     * @param offset of the record.
+     * @param stringOffsets receives the offsets, in the order the fields are encoded.
+     */
+    static void locateStrings(ByteBuffer buffer, int offset, int[] stringOffsets) {
+        buffer.position(offset + RECORD_IDS_SIZE);
+        for (int field = 0; field < STRING_FIELD_COUNT; ++field) {
+            stringOffsets[field] = buffer.position();
+            if (buffer.getInt() != NULL_STRING) {
+                skip(buffer, buffer.getInt());
+            }
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    private static String decodeUtf8(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The string fields of a movie in the order they are encoded. */
+    private static String[] getStrings(Movie movie) {
+        return new String[] {
+            movie.getTitle(),
+            movie.getDescription(),
+            movie.getStudio(),
+            movie.getCategory(),
+            movie.getVideoUrl(),
+            movie.getCardImageUrl(),
+            movie.getBackgroundImageUrl()
+        };
+    }
+
+    /** The decoded dictionary of the content segment. */
+    private static final class Dictionary {
+
+        final long mGeneration;
+        final String[] mStrings;
+
+        Dictionary(long generation, String[] strings) {
+            mGeneration = generation;
+            mStrings = strings;
+        }
+    }
+
+    /**
+     * Builds the dictionary of the content segment and encodes its records.
+     *
+     * <p>Entry 0 is always the empty string, used as the prefix of strings that share nothing with
+     * other strings.
+     */
+    private static final class SegmentEncoder {
+
+        private final Map<String, Integer> mIndexes = new HashMap<>();
+        private final List<byte[]> mEntries = new ArrayList<>();
+        private int mDictionaryLength = 4;
+
+        /** Strings seen once while learning, added to the dictionary when seen again. */
+        private final Map<String, Boolean> mCandidates;
+
+        /**
+         * Starts with an empty dictionary that learns repeated strings and prefixes as records are
+         * encoded. Entries are only ever appended, so records encoded earlier stay valid.
+         */
+        SegmentEncoder() {
+            add("");
+            mCandidates =
+                    new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                            return size() > MAX_LEARNED_ENTRIES;
+                        }
+                    };
+        }
+
+        /**
+         * Starts with the entries of a stored dictionary, in the same order, so the records encoded
+         * against it stay valid, and learns more as records are encoded.
+         */
+        SegmentEncoder(String[] dictionary) {
+            this();
+            for (int i = 1; i < dictionary.length; ++i) {
+                add(dictionary[i]);
+            }
+        }
+
+        /** Returns the entries of the dictionary so far, to decode the records encoded so far. */
+        String[] getEntries() {
+            String[] strings = new String[mEntries.size()];
+            for (Map.Entry<String, Integer> entry : mIndexes.entrySet()) {
+                strings[entry.getValue()] = entry.getKey();
+            }
+            return strings;
+        }
+
+        byte[] encodeDictionary() {
+            ByteBuffer dictionary = ByteBuffer.allocate(mDictionaryLength);
+            dictionary.putInt(mEntries.size());
+            for (byte[] entry : mEntries) {
+                dictionary.putInt(entry.length);
+                dictionary.put(entry);
+            }
+            return dictionary.array();
+        }
+
+        byte[] encode(Movie movie) {
+            String[] values = getStrings(movie);
+            int[] prefixes = new int[values.length];
+            byte[][] suffixes = new byte[values.length][];
+            int size = 3 * 8;
+            for (int i = 0; i < values.length; ++i) {
+                String value = values[i];
+                if (value == null) {
+                    prefixes[i] = NULL_STRING;
+                    size += 4;
+                    continue;
+                }
+                learn(value);
+                Integer index = mIndexes.get(value);
+                String suffix = "";
+                if (index == null) {
+                    String prefix = prefixOf(value);
+                    index = mIndexes.get(prefix);
+                    if (index == null) {
+                        index = 0;
+                        prefix = "";
+                    }
+                    suffix = value.substring(prefix.length());
+                }
+                prefixes[i] = index;
+                suffixes[i] = suffix.getBytes(StandardCharsets.UTF_8);
+                size += 8 + suffixes[i].length;
+            }
+            ByteBuffer record = ByteBuffer.allocate(size);
+            record.putLong(movie.getId());
+            record.putLong(movie.getProgramId());
+            record.putLong(movie.getWatchNextId());
+            for (int i = 0; i < values.length; ++i) {
+                record.putInt(prefixes[i]);
+                if (prefixes[i] != NULL_STRING) {
+                    record.putInt(suffixes[i].length);
+                    record.put(suffixes[i]);
+                }
+            }
+            return record.array();
+        }
+
+        private void add(String value) {
+            byte[] entry = value.getBytes(StandardCharsets.UTF_8);
+            mIndexes.put(value, mEntries.size());
+            mEntries.add(entry);
+            mDictionaryLength += 4 + entry.length;
+        }
+
+        private void learn(String value) {
+            if (mIndexes.containsKey(value) || mEntries.size() >= MAX_LEARNED_ENTRIES) {
+                return;
+            }
+            if (mCandidates.remove(value) != null) {
+                add(value);
+                return;
+            }
+            mCandidates.put(value, Boolean.TRUE);
+            String prefix = prefixOf(value);
+            if (prefix.isEmpty() || mIndexes.containsKey(prefix)) {
+                return;
+            }
+            if (mCandidates.remove(prefix) != null) {
+                add(prefix);
+            } else {
+                mCandidates.put(prefix, Boolean.TRUE);
+            }
+        }
+
+        private static String prefixOf(String value) {
+            return value.substring(0, value.lastIndexOf('/') + 1);
+        }
+    }
+
+    /**
+     * The records of a new segment in saved order, with the ids and positions needed for its index.
+     * Records are buffered in memory, or in a file while encoding content.
+     */
+    private static final class Segment {
+
+        final long mChannelId;
+
+        /** Encoded dictionary that the records follow, if any. */
+        byte[] mDictionary = new byte[0];
+
+        @Nullable private final File mFile;
+        private final OutputStream mRecords;
+        private long[] mIds = new long[16];
+        private int[] mOffsets = new int[16];
+        private int[] mLengths = new int[16];
+
+        int mCount;
+        int mRecordsLength;
+
+        /**
+         * @param channelId of the channel the segment belongs to.
+         * @param file to buffer the records in, or null to buffer them in memory.
+         */
+        Segment(long channelId, @Nullable File file) throws IOException {
+            mChannelId = channelId;
+            mFile = file;
+            mRecords =
+                    file == null
+                            ? new ByteArrayOutputStream()
+                            : new BufferedOutputStream(
+                                    new FileOutputStream(file), COPY_BUFFER_SIZE);
+        }
+
+        void add(long movieId, byte[] record) throws IOException {
+            if (record.length > Integer.MAX_VALUE - mRecordsLength) {
+                throw new IOException("Segment would exceed " + Integer.MAX_VALUE + " bytes");
+            }
+            if (mCount == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mCount * 2);
+                mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+                mLengths = Arrays.copyOf(mLengths, mCount * 2);
+            }
+            mIds[mCount] = movieId;
+            mOffsets[mCount] = mRecordsLength;
+            mLengths[mCount] = record.length;
+            mRecords.write(record);
+            mRecordsLength += record.length;
+            ++mCount;
+        }
+
+        /**
+         * Writes the index entries sorted by movie id, the records keep their saved order.
+         *
+         * @param out positioned at the first index entry of the segment.
+         * @param recordsOffset of the first record in the new file.
+         */
+        void writeIndex(DataOutputStream out, int recordsOffset) throws IOException {
+            Integer[] order = new Integer[mCount];
+            for (int i = 0; i < mCount; ++i) {
+                order[i] = i;
+            }
+            final long[] ids = mIds;
+            Arrays.sort(
+                    order,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer a, Integer b) {
+                            return Long.compare(ids[a], ids[b]);
+                        }
+                    });
+            for (int record : order) {
+                out.writeLong(mIds[record]);
+                out.writeInt(recordsOffset + mOffsets[record]);
+                out.writeInt(mLengths[record]);
+            }
+        }
+
+        void writeRecords(OutputStream out, byte[] copyBuffer) throws IOException {
+            if (mFile == null) {
+                ((ByteArrayOutputStream) mRecords).writeTo(out);
+                return;
+            }
+            mRecords.close();
+            try (FileInputStream in = new FileInputStream(mFile)) {
+                int length;
+                while ((length = in.read(copyBuffer)) != -1) {
+                    out.write(copyBuffer, 0, length);
+                }
+            }
+        }
+
+        long getId(int record) {
+            return mIds[record];
+        }
+
+        int getLength(int record) {
+            return mLengths[record];
+        }
+
+        /** Finishes the records and opens them for reading, in saved order. */
+        DataInputStream openRecords() throws IOException {
+            if (mFile == null) {
+                return new DataInputStream(
+                        new ByteArrayInputStream(((ByteArrayOutputStream) mRecords).toByteArray()));
+            }
+            mRecords.close();
+            return new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mFile), COPY_BUFFER_SIZE));
+        }
+
+        void close() {
+            try {
+                mRecords.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close " + mFile, e);
+            }
+        }
+    }
+}
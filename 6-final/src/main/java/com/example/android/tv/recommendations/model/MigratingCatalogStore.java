@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves the catalog that earlier versions of the app persisted in {@link SharedPreferences} into a
+ * new store, one channel at a time.
+ *
+ * <p>The subscriptions are copied when the new store is first created. The movies of a channel are
+ * copied the first time the channel is accessed, and then removed from the legacy store, so an app
+ * update does not have to parse every channel before it can show the first one. Channels that are
+ * never accessed again stay in the legacy store until they are deleted as orphans.
+ */
+final class MigratingCatalogStore implements CatalogStore {
+
+    private static final String TAG = "MigratingCatalogStore";
+
+    private final CatalogStore mStore;
+    private final CatalogStore mLegacyStore;
+
+    /** Channels whose legacy movies are known to be gone. Guarded by this. */
+    private final LongHashMap<Boolean> mMigratedChannels = new LongHashMap<>();
+
+    /**
+     * @param store that the catalog is moved to.
+     * @param legacyStore that the catalog is moved from.
+     */
+    MigratingCatalogStore(CatalogStore store, CatalogStore legacyStore) {
+        mStore = store;
+        mLegacyStore = legacyStore;
+        if (!store.isLegacyCatalogImported()) {
+            store.writeSubscriptions(legacyStore.readSubscriptions());
+            store.setLegacyCatalogImported();
+        }
+    }
+
+    @Override
+    public boolean isLegacyCatalogImported() {
+        return mStore.isLegacyCatalogImported();
+    }
+
+    @Override
+    public void setLegacyCatalogImported() {
+        mStore.setLegacyCatalogImported();
+    }
+
+    @Override
+    public List<Subscription> readSubscriptions() {
+        return mStore.readSubscriptions();
+    }
+
+    @Override
+    public void writeSubscriptions(List<Subscription> subscriptions) {
+        mStore.writeSubscriptions(subscriptions);
+    }
+
+    @Override
+    public List<Movie> readMovies(long channelId) {
+        migrate(channelId);
+        return mStore.readMovies(channelId);
+    }
+
+    @Override
+    public MovieIds readMovieIds(long channelId) {
+        migrate(channelId);
+        return mStore.readMovieIds(channelId);
+    }
+
+    @Nullable
+    @Override
+    public Movie findMovie(long channelId, long movieId) {
+        migrate(channelId);
+        return mStore.findMovie(channelId, movieId);
+    }
+
+    @Override
+    public boolean findMovie(long channelId, long movieId, MovieView view) {
+        migrate(channelId);
+        return mStore.findMovie(channelId, movieId, view);
+    }
+
+    /** The movies replace the channel, so the legacy copy is dropped without being copied. */
+    @Override
+    public void writeMovies(long channelId, List<Movie> movies) {
+        boolean pending = markMigrated(channelId);
+        mStore.writeMovies(channelId, movies);
+        if (pending) {
+            mLegacyStore.writeMovies(channelId, Collections.<Movie>emptyList());
+        }
+    }
+
+    @Override
+    public void importMovies(long channelId, Iterator<Movie> movies) {
+        boolean pending = markMigrated(channelId);
+        mStore.importMovies(channelId, movies);
+        if (pending) {
+            mLegacyStore.writeMovies(channelId, Collections.<Movie>emptyList());
+        }
+    }
+
+    @Override
+    public void updateMovies(long channelId, List<Movie> updatedMovies, List<Movie> allMovies) {
+        migrate(channelId);
+        mStore.updateMovies(channelId, updatedMovies, allMovies);
+    }
+
+    @Override
+    public long deleteOrphanedChannels(Set<Long> channelIds) {
+        return mLegacyStore.deleteOrphanedChannels(channelIds)
+                + mStore.deleteOrphanedChannels(channelIds);
+    }
+
+    /**
+     * Returns how many movies are still in the legacy store, in the channels of the current
+     * subscriptions. Every legacy channel is parsed, so this is meant for tests.
+     *
+     * @return the number of movies left to migrate, 0 once every subscribed channel was accessed.
+     */
+    long countUnmigratedMovies() {
+        long count = 0;
+        for (Subscription subscription : mStore.readSubscriptions()) {
+            long channelId = subscription.getChannelId();
+            synchronized (this) {
+                if (mMigratedChannels.get(channelId) != null) {
+                    continue;
+                }
+            }
+            count += mLegacyStore.readMovieIds(channelId).size();
+        }
+        return count;
+    }
+
+    /**
+     * Copies the legacy movies of a channel into the new store, the first time the channel is
+     * accessed. A channel that the new store already has movies for was written after the legacy
+     * copy, which is then dropped without being copied.
+     */
+    private synchronized void migrate(long channelId) {
+        if (mMigratedChannels.get(channelId) != null) {
+            return;
+        }
+        List<Movie> movies = mLegacyStore.readMovies(channelId);
+        if (!movies.isEmpty()) {
+            if (mStore.readMovieIds(channelId).size() == 0) {
+                mStore.writeMovies(channelId, movies);
+                Log.d(TAG, "Migrated " + movies.size() + " movie(s) of channel " + channelId);
+            }
+            mLegacyStore.writeMovies(channelId, Collections.<Movie>emptyList());
+        }
+        mMigratedChannels.put(channelId, Boolean.TRUE);
+    }
+
+    /**
+     * Marks a channel as migrated before it is written, so a migration that is not running yet
+     * cannot overwrite the new movies with the legacy ones, and one that is running finishes first.
+     *
+     * @return whether the channel may still have legacy movies, which the caller drops.
+     */
+    private synchronized boolean markMigrated(long channelId) {
+        return mMigratedChannels.put(channelId, Boolean.TRUE) == null;
+    }
+}
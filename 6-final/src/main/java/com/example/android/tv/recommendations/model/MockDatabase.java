@@ -15,18 +15,67 @@ package com.example.android.tv.recommendations.model;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import com.example.android.tv.recommendations.BuildConfig;
 import com.example.android.tv.recommendations.R;
 import com.example.android.tv.recommendations.util.AppLinkHelper;
-import com.example.android.tv.recommendations.util.SharedPreferencesHelper;
+import com.example.android.tv.recommendations.util.MovieTypeAdapter;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-/** Mock database stores data in {@link SharedPreferences}. */
+/**
+ * Mock database persists subscriptions and movies in a {@link CatalogStore}. Movie changes are
+ * buffered by a {@link WriteBehindMovieCache} and written to the store in batches.
+ *
+ * <p>{@code BuildConfig.CATALOG_STORE} selects the store: {@link #STORE_MAPPED} keeps movies in a
+ * memory-mapped {@link MappedMovieStore}, {@link #STORE_SQLITE} keeps the catalog in a {@link
+ * SqliteCatalogStore} and {@link #STORE_SHARED_PREFERENCES} keeps it in {@link SharedPreferences}.
+ */
 public final class MockDatabase {
 
+    private static final String TAG = "MockDatabase";
+
+    static final String STORE_MAPPED = "mapped";
+    static final String STORE_SQLITE = "sqlite";
+    static final String STORE_SHARED_PREFERENCES = "prefs";
+
+    private static final Object sCatalogLock = new Object();
+
+    /**
+     * Opens the store and indexes it, at most once per process. Written while holding
+     * sCatalogLock, volatile so that callers only take the lock until the task exists.
+     */
+    private static volatile FutureTask<Catalog> sLoadTask;
+
+    /** Changes a movie passed to {@link #updateMovie}. */
+    public interface MovieMutator {
+
+        /**
+         * Called while other writes to the movie's subscription are held off.
+         *
+         * @param movie a copy of the stored movie to be changed in place. Its id must not change.
+         */
+        void mutate(Movie movie);
+    }
+
     private MockDatabase() {
         // Do nothing.
     }
@@ -98,12 +147,7 @@ public final class MockDatabase {
 
     @Nullable
     private static Subscription findSubscriptionByTitle(Context context, String title) {
-        for (Subscription subscription : getSubscriptions(context)) {
-            if (subscription.getName().equals(title)) {
-                return subscription;
-            }
-        }
-        return null;
+        return getSubscriptionIndex(context).findByName(title);
     }
 
     /**
@@ -113,7 +157,11 @@ public final class MockDatabase {
      * @param subscriptions stored in shared preferences.
      */
     public static void saveSubscriptions(Context context, List<Subscription> subscriptions) {
-        SharedPreferencesHelper.storeSubscriptions(context, subscriptions);
+        SubscriptionIndex index = getSubscriptionIndex(context);
+        synchronized (index) {
+            index.replaceAll(subscriptions);
+            storeSubscriptions(context, subscriptions);
+        }
     }
 
     /**
@@ -124,25 +172,10 @@ public final class MockDatabase {
      * @param subscription to be saved.
      */
     public static void saveSubscription(Context context, Subscription subscription) {
-        List<Subscription> subscriptions = getSubscriptions(context);
-        int index = findSubscription(subscriptions, subscription);
-        if (index == -1) {
-            subscriptions.add(subscription);
-        } else {
-            subscriptions.set(index, subscription);
+        SubscriptionIndex index = getSubscriptionIndex(context);
+        synchronized (index) {
+            storeSubscriptions(context, index.put(subscription));
         }
-        saveSubscriptions(context, subscriptions);
-    }
-
-    private static int findSubscription(
-            List<Subscription> subscriptions, Subscription subscription) {
-        for (int index = 0; index < subscriptions.size(); ++index) {
-            Subscription current = subscriptions.get(index);
-            if (current.getName().equals(subscription.getName())) {
-                return index;
-            }
-        }
-        return -1;
     }
 
     /**
@@ -152,7 +185,7 @@ public final class MockDatabase {
      * @return a list of subscriptions or empty list if none exist.
      */
     public static List<Subscription> getSubscriptions(Context context) {
-        return SharedPreferencesHelper.readSubscriptions(context);
+        return getSubscriptionIndex(context).getAll();
     }
 
     /**
@@ -164,12 +197,7 @@ public final class MockDatabase {
      */
     @Nullable
     public static Subscription findSubscriptionByChannelId(Context context, long channelId) {
-        for (Subscription subscription : getSubscriptions(context)) {
-            if (subscription.getChannelId() == channelId) {
-                return subscription;
-            }
-        }
-        return null;
+        return getSubscriptionIndex(context).findByChannelId(channelId);
     }
 
     /**
@@ -181,30 +209,67 @@ public final class MockDatabase {
      */
     @Nullable
     public static Subscription findSubscriptionByName(Context context, String name) {
-        for (Subscription subscription : getSubscriptions(context)) {
-            if (subscription.getName().equals(name)) {
-                return subscription;
-            }
-        }
-        return null;
+        return getSubscriptionIndex(context).findByName(name);
     }
 
     /**
-     * Overrides the movies stored in {@link SharedPreferences} for a given subscription.
+     * Overrides the movies stored for a given subscription.
      *
-     * @param context used for accessing shared preferences.
+     * @param context used for accessing the movie store.
      * @param channelId of the channel that the movies are associated with.
      * @param movies to be stored.
      */
     public static void saveMovies(Context context, long channelId, List<Movie> movies) {
-        SharedPreferencesHelper.storeMovies(context, channelId, movies);
+        getMovieCache(context).writeMovies(channelId, movies);
     }
 
     /**
-     * Removes the list of movies associated with a channel. Overrides the current list with an
-     * empty list in {@link SharedPreferences}.
+     * Overrides the movies stored for a given subscription with the movies of a stream, for
+     * importing catalogs too large to hold in memory as a list. The movies are written to the store
+     * as they are read, so only a bounded number of them is in memory at any time. Should not be
+     * called on the UI thread.
      *
-     * @param context used for accessing shared preferences.
+     * @param context used for accessing the movie store.
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored, in order. Exceptions they throw are propagated, and so are
+     *     failures to write the store. Either leaves the movies unchanged, including changes that
+     *     were not flushed yet.
+     */
+    public static void importMovies(Context context, long channelId, Iterator<Movie> movies) {
+        long start = SystemClock.elapsedRealtime();
+        getMovieCache(context).importMovies(channelId, movies);
+        Log.d(
+                TAG,
+                "Imported movies of channel "
+                        + channelId
+                        + " in "
+                        + (SystemClock.elapsedRealtime() - start)
+                        + " ms");
+    }
+
+    /**
+     * Overrides the movies stored for a given subscription with a JSON array of movies, parsed one
+     * movie at a time. See {@link #importMovies(Context, long, Iterator)}.
+     *
+     * @param context used for accessing the movie store.
+     * @param channelId of the channel that the movies are associated with.
+     * @param json array in the format written by {@link MovieTypeAdapter}. Not closed.
+     * @throws IOException if the JSON could not be read or parsed, the stored movies are unchanged.
+     */
+    public static void importMovies(Context context, long channelId, Reader json)
+            throws IOException {
+        try {
+            Iterator<Movie> movies = new MovieTypeAdapter().readArray(new JsonReader(json));
+            importMovies(context, channelId, movies);
+        } catch (JsonIOException | JsonSyntaxException e) {
+            throw new IOException("Could not import movies of channel " + channelId, e);
+        }
+    }
+
+    /**
+     * Removes the list of movies associated with a channel.
+     *
+     * @param context used for accessing the movie store.
      * @param channelId of the channel that the movies are associated with.
      */
     public static void removeMovies(Context context, long channelId) {
@@ -215,57 +280,302 @@ public final class MockDatabase {
      * Finds movie in subscriptions with channel id and updates it. Otherwise will add the new movie
      * to the subscription.
      *
-     * @param context to access shared preferences.
+     * @param context to access the movie store.
      * @param channelId of the subscription that the movie is associated with.
      * @param movie to be persisted or updated.
      */
     public static void saveMovie(Context context, long channelId, Movie movie) {
-        List<Movie> movies = getMovies(context, channelId);
-        int index = findMovie(movies, movie);
-        if (index == -1) {
-            movies.add(movie);
-        } else {
-            movies.set(index, movie);
-        }
-        saveMovies(context, channelId, movies);
+        getMovieCache(context).writeMovie(channelId, movie);
     }
 
-    private static int findMovie(List<Movie> movies, Movie movie) {
-        for (int index = 0; index < movies.size(); ++index) {
-            Movie current = movies.get(index);
-            if (current.getId() == movie.getId()) {
-                return index;
-            }
-        }
-        return -1;
+    /**
+     * Changes a movie of a subscription atomically. Unlike reading the movie and saving it with
+     * {@link #saveMovie}, no other write to the subscription's movies can land in between and be
+     * lost.
+     *
+     * @param context to access the movie store.
+     * @param channelId of the subscription that the movie is associated with.
+     * @param movieId of the movie.
+     * @param mutator that changes the movie.
+     * @return the updated movie or null if none exist.
+     */
+    @Nullable
+    public static Movie updateMovie(
+            Context context, long channelId, long movieId, MovieMutator mutator) {
+        return getMovieCache(context).updateMovie(channelId, movieId, mutator);
     }
 
     /**
-     * Returns movies stored in {@link SharedPreferences} for a given subscription.
+     * Replaces a movie of a subscription atomically, for a program that now shows another movie.
+     * The new movie takes the position and program id of the old one. If the subscription holds the
+     * new movie already, the two movies trade places instead, so that no movie or program is
+     * stored twice.
      *
-     * @param context used for accessing shared preferences.
+     * @param context to access the movie store.
+     * @param channelId of the subscription that the movies are associated with.
+     * @param oldMovieId of the movie to be replaced.
+     * @param movie to be stored in its place.
+     * @return the stored movie or null if the old movie does not exist.
+     */
+    @Nullable
+    public static Movie replaceMovie(
+            Context context, long channelId, long oldMovieId, Movie movie) {
+        return getMovieCache(context).replaceMovie(channelId, oldMovieId, movie);
+    }
+
+    /**
+     * Returns movies stored for a given subscription.
+     *
+     * @param context used for accessing the movie store.
      * @param channelId of the subscription that the movie is associated with.
      * @return a list of movies for a subscription
      */
     public static List<Movie> getMovies(Context context, long channelId) {
-        return SharedPreferencesHelper.readMovies(context, channelId);
+        return getMovieCache(context).readMovies(channelId);
+    }
+
+    /**
+     * Returns the id, program id and watch next id of the movies stored for a given subscription,
+     * without reading their other fields.
+     *
+     * @param context used for accessing the movie store.
+     * @param channelId of the subscription that the movies are associated with.
+     * @return the id columns of the movies for a subscription
+     */
+    public static MovieIds getMovieIds(Context context, long channelId) {
+        return getMovieCache(context).readMovieIds(channelId);
     }
 
     /**
      * Finds a movie in a subscription by its id.
      *
-     * @param context to access shared preferences.
+     * @param context to access the movie store.
      * @param channelId of the subscription that the movie is associated with.
      * @param movieId of the movie.
      * @return a movie or null if none exist.
      */
     @Nullable
     public static Movie findMovieById(Context context, long channelId, long movieId) {
-        for (Movie movie : getMovies(context, channelId)) {
-            if (movie.getId() == movieId) {
-                return movie;
+        return getMovieCache(context).findMovie(channelId, movieId);
+    }
+
+    /**
+     * Points a view at a movie in a subscription, without reading the rest of the subscription's
+     * movies or decoding the fields of the movie that are not read.
+     *
+     * @param context to access the movie store.
+     * @param channelId of the subscription that the movie is associated with.
+     * @param movieId of the movie.
+     * @param view to point at the movie, can be reused across lookups.
+     * @return true if the movie exists.
+     */
+    public static boolean findMovieById(
+            Context context, long channelId, long movieId, MovieView view) {
+        return getMovieCache(context).findMovie(channelId, movieId, view);
+    }
+
+    /**
+     * Deletes the movies of channels that no subscription refers to anymore. Should not be called
+     * on the UI thread.
+     *
+     * @param context to access the movie store.
+     * @return an estimate of the number of bytes reclaimed.
+     */
+    public static long deleteOrphanedMovies(Context context) {
+        WriteBehindMovieCache cache = getMovieCache(context);
+        // Movies are only written after their subscription is saved, so a channel that is missing
+        // from the list because it was subscribed meanwhile is written after this generation.
+        long generation = cache.getWriteGeneration();
+        List<Subscription> subscriptions = getSubscriptions(context);
+        Set<Long> channelIds = new HashSet<>(subscriptions.size() * 2);
+        for (Subscription subscription : subscriptions) {
+            channelIds.add(subscription.getChannelId());
+        }
+        return cache.deleteOrphanedChannels(channelIds, generation);
+    }
+
+    /**
+     * Writes pending movie changes to disk on the calling thread. Should not be called on the UI
+     * thread.
+     *
+     * @param context to access the movie store.
+     */
+    public static void flush(Context context) {
+        getMovieCache(context).flush();
+    }
+
+    /**
+     * Writes pending movie changes to disk on a background thread without waiting for the flush
+     * delay to expire. Safe to call from the UI thread.
+     *
+     * @param context to access the movie store.
+     */
+    public static void requestFlush(Context context) {
+        getMovieCache(context).requestFlush();
+    }
+
+    /**
+     * Starts loading and indexing the store on a background thread, so that the first call on
+     * another thread finds it ready or waits for the load in flight instead of starting its own.
+     * Only the subscriptions are loaded. The movies of a channel are loaded when they are first
+     * read, since a process started for one channel's job rarely reads the others. Safe to call
+     * from the UI thread, usually when the process starts.
+     *
+     * @param context used for accessing the store.
+     */
+    public static void warmUp(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        long start = SystemClock.elapsedRealtime();
+                        getCatalog(appContext);
+                        Log.d(
+                                TAG,
+                                "Warmed up the catalog in "
+                                        + (SystemClock.elapsedRealtime() - start)
+                                        + " ms");
+                    }
+                });
+    }
+
+    /**
+     * Replaces the store behind the mock database, for example to compare storage engines. Pending
+     * movie changes are written to the previous store first. The new store is used as is, nothing
+     * is imported into it.
+     *
+     * @param store to be used from now on.
+     */
+    @VisibleForTesting
+    public static void setCatalogStore(final CatalogStore store) {
+        synchronized (sCatalogLock) {
+            FutureTask<Catalog> previous = sLoadTask;
+            if (previous != null && previous.isDone()) {
+                try {
+                    previous.get().mMovieCache.close();
+                } catch (InterruptedException | ExecutionException e) {
+                    // A failed load has nothing to close.
+                }
             }
+            FutureTask<Catalog> task =
+                    new FutureTask<>(
+                            new Callable<Catalog>() {
+                                @Override
+                                public Catalog call() {
+                                    return new Catalog(store);
+                                }
+                            });
+            task.run();
+            sLoadTask = task;
+        }
+    }
+
+    /**
+     * Returns the loaded catalog. Runs the load on the calling thread unless another thread already
+     * started it, in which case it waits for that load to finish.
+     */
+    private static Catalog getCatalog(final Context context) {
+        FutureTask<Catalog> task = sLoadTask;
+        if (task == null) {
+            synchronized (sCatalogLock) {
+                task = sLoadTask;
+                if (task == null) {
+                    task =
+                            new FutureTask<>(
+                                    new Callable<Catalog>() {
+                                        @Override
+                                        public Catalog call() {
+                                            return loadCatalog(context.getApplicationContext());
+                                        }
+                                    });
+                    sLoadTask = task;
+                }
+            }
+        }
+        // Does nothing if the load already ran or is running on another thread.
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // The catalog is needed either way, keep waiting and restore the flag after.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // Let the next call try again.
+                    synchronized (sCatalogLock) {
+                        if (sLoadTask == task) {
+                            sLoadTask = null;
+                        }
+                    }
+                    Throwable cause = e.getCause();
+                    throw cause instanceof RuntimeException
+                            ? (RuntimeException) cause
+                            : new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Catalog loadCatalog(Context context) {
+        return new Catalog(createCatalogStore(context, BuildConfig.CATALOG_STORE));
+    }
+
+    /**
+     * Creates a store that moves the catalog persisted by earlier versions of the app in {@link
+     * SharedPreferences} into it as the channels are accessed.
+     */
+    private static CatalogStore createCatalogStore(Context context, String name) {
+        CatalogStore legacyStore = new SharedPreferencesCatalogStore(context);
+        CatalogStore store;
+        switch (name) {
+            case STORE_SQLITE:
+                store = SqliteCatalogStore.getInstance(context);
+                break;
+            case STORE_SHARED_PREFERENCES:
+                // The legacy store itself, there is nothing to move.
+                return legacyStore;
+            case STORE_MAPPED:
+                store = MappedMovieStore.getInstance(context);
+                break;
+            default:
+                Log.w(TAG, "Unknown catalog store " + name + ", using " + STORE_MAPPED);
+                store = MappedMovieStore.getInstance(context);
+                break;
+        }
+        return new MigratingCatalogStore(store, legacyStore);
+    }
+
+    private static SubscriptionIndex getSubscriptionIndex(Context context) {
+        return getCatalog(context).mSubscriptionIndex;
+    }
+
+    private static void storeSubscriptions(Context context, List<Subscription> subscriptions) {
+        getCatalog(context).mStore.writeSubscriptions(subscriptions);
+    }
+
+    private static WriteBehindMovieCache getMovieCache(Context context) {
+        return getCatalog(context).mMovieCache;
+    }
+
+    /** The store with the subscription index and the movie cache in front of it. */
+    private static final class Catalog {
+
+        final CatalogStore mStore;
+        final SubscriptionIndex mSubscriptionIndex;
+        final WriteBehindMovieCache mMovieCache;
+
+        Catalog(CatalogStore store) {
+            mStore = store;
+            mSubscriptionIndex = new SubscriptionIndex(store.readSubscriptions());
+            mMovieCache = new WriteBehindMovieCache(store);
         }
-        return null;
     }
 }
@@ -14,26 +14,39 @@
 package com.example.android.tv.recommendations.model;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
+import com.example.android.tv.recommendations.BuildConfig;
 import com.example.android.tv.recommendations.R;
 import com.example.android.tv.recommendations.util.AppLinkHelper;
+import com.example.android.tv.recommendations.util.SharedPreferencesHelper;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 /** Mocks gathering movies from an external source. */
 public final class MockMovieService {
 
+    // Offset basis and prime of the 64-bit FNV-1a hash.
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private static List<Movie> list;
-    private static long count = 0;
+
+    private static SyntheticCatalog sSyntheticCatalog;
 
     /**
-     * Creates a list of subscriptions that every users should have.
+     * Creates a list of subscriptions that every users should have, or the subscriptions of the
+     * synthetic catalog if it is enabled, see {@link #getSyntheticCatalog()}.
      *
      * @param context used for accessing shared preferences.
      * @return a list of default subscriptions.
      */
     public static List<Subscription> createUniversalSubscriptions(Context context) {
+        SyntheticCatalog syntheticCatalog = getSyntheticCatalog();
+        if (syntheticCatalog != null) {
+            return syntheticCatalog.createSubscriptions();
+        }
 
         String newForYou = context.getString(R.string.new_for_you);
         Subscription flagshipSubscription =
@@ -67,7 +80,7 @@ public final class MockMovieService {
      *
      * @return a list of movies.
      */
-    public static List<Movie> getList() {
+    public static synchronized List<Movie> getList() {
         if (list == null || list.isEmpty()) {
             list = createMovieList();
         }
@@ -75,15 +88,130 @@ public final class MockMovieService {
     }
 
     /**
-     * Shuffles the list of movies to make the returned list appear to be a different list from
-     * {@link #getList()}.
+     * Returns the synthetic catalog that replaces the mock one for scale testing. It is enabled by
+     * setting the {@code SYNTHETIC_SUBSCRIPTIONS} and {@code SYNTHETIC_MOVIES} build config fields.
+     *
+     * @return the catalog, or null if it is not enabled.
+     */
+    @Nullable
+    public static synchronized SyntheticCatalog getSyntheticCatalog() {
+        if (sSyntheticCatalog == null
+                && BuildConfig.SYNTHETIC_SUBSCRIPTIONS > 0
+                && BuildConfig.SYNTHETIC_MOVIES > 0) {
+            sSyntheticCatalog =
+                    new SyntheticCatalog(
+                            SyntheticCatalog.DEFAULT_SEED,
+                            BuildConfig.SYNTHETIC_SUBSCRIPTIONS,
+                            BuildConfig.SYNTHETIC_MOVIES,
+                            SyntheticCatalog.DEFAULT_CHURN);
+        }
+        return sSyntheticCatalog;
+    }
+
+    /**
+     * Returns the catalog that new channels are filled from: the catalog file pushed to the device
+     * if there is one, see {@link LocalCatalogSource#find(Context)}, the catalog at the {@code
+     * CATALOG_URL} build config field if it is set, see {@link HttpCatalogSource}, the
+     * subscription's channel of the synthetic catalog if it is enabled, or else {@link #getList()}.
      *
-     * @return a list of movies in random order.
+     * @param context used for locating the catalog file and the cache of the fetched catalog.
+     * @param subscription whose channel is filled.
+     * @return the source, to be closed once the caller is done with it.
      */
-    public static List<Movie> getFreshList() {
-        List<Movie> shuffledMovies = new ArrayList<>(getList());
-        Collections.shuffle(shuffledMovies);
-        return shuffledMovies;
+    public static CatalogSource getCatalogSource(Context context, Subscription subscription) {
+        CatalogSource source = findExternalCatalogSource(context);
+        if (source != null) {
+            return source;
+        }
+        SyntheticCatalog syntheticCatalog = getSyntheticCatalog();
+        if (syntheticCatalog != null) {
+            return syntheticCatalog.getCatalogSource(subscription.getName(), 0);
+        }
+        return new ListCatalogSource(getList());
+    }
+
+    /**
+     * Like {@link #getCatalogSource(Context, Subscription)}, but pages over the next generation of
+     * the synthetic catalog, or over the next window of {@link #getList()}, when there is neither a
+     * catalog file nor a catalog URL. A fetched catalog is revalidated with the server.
+     *
+     * <p>Windows rotate through the list from a cursor that is stored per subscription, so each
+     * fresh list starts with the movies after the ones the channel was last given. Only the movies
+     * that are fetched are copied, rather than the whole list. Synthetic generations are stored per
+     * subscription the same way, so a channel keeps moving on across restarts and regardless of
+     * how often the other channels were updated.
+     *
+     * @param context used for locating the catalog file and the cache, and storing the cursor.
+     * @param subscription whose channel is updated.
+     * @param windowSize number of movies the channel shows, which the cursor moves ahead by.
+     * @return the source, to be closed once the caller is done with it.
+     */
+    public static CatalogSource getFreshCatalogSource(
+            Context context, Subscription subscription, int windowSize) {
+        CatalogSource source = findExternalCatalogSource(context);
+        if (source != null) {
+            return source;
+        }
+        SyntheticCatalog syntheticCatalog = getSyntheticCatalog();
+        if (syntheticCatalog != null) {
+            return syntheticCatalog.getCatalogSource(
+                    subscription.getName(), nextSyntheticGeneration(context, subscription));
+        }
+        List<Movie> movies = getList();
+        return new ListCatalogSource(movies, nextFreshCursor(context, subscription, windowSize));
+    }
+
+    /** Returns the source of the catalog file or URL, or null if there is neither. */
+    @Nullable
+    private static CatalogSource findExternalCatalogSource(Context context) {
+        CatalogSource source = LocalCatalogSource.find(context);
+        if (source != null) {
+            return source;
+        }
+        return HttpCatalogSource.create(context, BuildConfig.CATALOG_URL);
+    }
+
+    /** Returns the next synthetic generation of a subscription and moves the stored one on. */
+    private static synchronized long nextSyntheticGeneration(
+            Context context, Subscription subscription) {
+        String name = subscription.getName();
+        long generation = SharedPreferencesHelper.readSyntheticGeneration(context, name) + 1;
+        SharedPreferencesHelper.storeSyntheticGeneration(context, name, generation);
+        return generation;
+    }
+
+    /** Returns where the fresh window of a subscription starts and moves the stored cursor on. */
+    private static synchronized int nextFreshCursor(
+            Context context, Subscription subscription, int windowSize) {
+        int size = getList().size();
+        if (size == 0) {
+            return 0;
+        }
+        String name = subscription.getName();
+        // The list may have shrunk since the cursor was stored.
+        int cursor = SharedPreferencesHelper.readFreshCursor(context, name) % size;
+        // A window as long as the list would come back unchanged, rotate it by one instead.
+        int step = windowSize % size == 0 ? 1 : windowSize % size;
+        SharedPreferencesHelper.storeFreshCursor(context, name, (cursor + step) % size);
+        return cursor;
+    }
+
+    /**
+     * Derives the id of a movie from its video URL, so a movie keeps its id across restarts and
+     * syncs, and deep links to it stay valid. The id is the 64-bit FNV-1a hash of the URL's UTF-8
+     * bytes with the sign bit cleared. With 63 bits, a collision within a catalog of even millions
+     * of movies is too unlikely to guard against.
+     *
+     * @param videoUrl of the movie.
+     * @return the id, never negative.
+     */
+    public static long createMovieId(String videoUrl) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : videoUrl.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash & Long.MAX_VALUE;
     }
 
     private static List<Movie> createMovieList() {
@@ -153,8 +281,7 @@ public final class MockMovieService {
             String cardImageUrl,
             String backgroundImageUrl) {
         Movie movie = new Movie();
-        movie.setId(count);
-        incCount();
+        movie.setId(createMovieId(videoUrl));
         movie.setTitle(title);
         movie.setDescription(description);
         movie.setStudio(studio);
@@ -164,8 +291,4 @@ public final class MockMovieService {
         movie.setVideoUrl(videoUrl);
         return movie;
     }
-
-    private static void incCount() {
-        count++;
-    }
 }
@@ -14,6 +14,7 @@
 package com.example.android.tv.recommendations.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /*
  * Movie class represents video entity with title, description, image thumbs and video url.
@@ -38,6 +39,20 @@ public class Movie implements Serializable {
 
     public Movie() {}
 
+    /** Creates a copy of a movie. */
+    public Movie(Movie other) {
+        this.id = other.id;
+        this.title = other.title;
+        this.description = other.description;
+        this.bgImageUrl = other.bgImageUrl;
+        this.cardImageUrl = other.cardImageUrl;
+        this.videoUrl = other.videoUrl;
+        this.studio = other.studio;
+        this.category = other.category;
+        this.programId = other.programId;
+        this.watchNextId = other.watchNextId;
+    }
+
     public long getProgramId() {
         return programId;
     }
@@ -118,6 +133,20 @@ public class Movie implements Serializable {
         this.category = category;
     }
 
+    /**
+     * Returns true if the other movie has the same title, description, studio, category and URLs.
+     * The ids are not compared.
+     */
+    public boolean hasSameContent(Movie other) {
+        return Objects.equals(title, other.title)
+                && Objects.equals(description, other.description)
+                && Objects.equals(studio, other.studio)
+                && Objects.equals(category, other.category)
+                && Objects.equals(videoUrl, other.videoUrl)
+                && Objects.equals(cardImageUrl, other.cardImageUrl)
+                && Objects.equals(bgImageUrl, other.bgImageUrl);
+    }
+
     @Override
     public String toString() {
         return "Movie{"
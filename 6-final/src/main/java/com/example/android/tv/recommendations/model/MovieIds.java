@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import java.util.List;
+
+/**
+ * The id, program id and watch next id of the movies of a channel, in saved order.
+ *
+ * <p>A projection for callers that only deal with the TV Provider ids of a channel. The columns
+ * are read without decoding the string fields of the movies where the store allows it.
+ */
+public final class MovieIds {
+
+    private final long[] mIds;
+    private final long[] mProgramIds;
+    private final long[] mWatchNextIds;
+
+    MovieIds(int size) {
+        mIds = new long[size];
+        mProgramIds = new long[size];
+        mWatchNextIds = new long[size];
+    }
+
+    /** Projects a list of movies that is already in memory. */
+    static MovieIds of(List<Movie> movies) {
+        MovieIds ids = new MovieIds(movies.size());
+        for (int i = 0; i < movies.size(); ++i) {
+            Movie movie = movies.get(i);
+            ids.set(i, movie.getId(), movie.getProgramId(), movie.getWatchNextId());
+        }
+        return ids;
+    }
+
+    void set(int index, long id, long programId, long watchNextId) {
+        mIds[index] = id;
+        mProgramIds[index] = programId;
+        mWatchNextIds[index] = watchNextId;
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    /** @return the movie ids. The array is shared and must not be modified. */
+    public long[] getIds() {
+        return mIds;
+    }
+
+    /** @return the program ids, in the same order as {@link #getIds()}. */
+    public long[] getProgramIds() {
+        return mProgramIds;
+    }
+
+    /** @return the watch next ids, in the same order as {@link #getIds()}. */
+    public long[] getWatchNextIds() {
+        return mWatchNextIds;
+    }
+
+    /**
+     * Finds the position of a movie in the columns.
+     *
+     * @param movieId of the movie.
+     * @return the index of the movie or -1 if the channel does not contain it.
+     */
+    public int indexOf(long movieId) {
+        for (int i = 0; i < mIds.length; ++i) {
+            if (mIds[i] == movieId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Append-only log of program id and watch next id changes for the movies of one channel.
+ *
+ * <p>Each channel has its own file that starts with the generation of the channel segment in the
+ * {@link MappedMovieStore} it applies to, followed by fixed-size records of movie id, program id
+ * and watch next id. A journal whose generation does not match the current segment was left
+ * behind by an interrupted compaction and is discarded.
+ */
+final class MovieJournal {
+
+    private static final String TAG = "MovieJournal";
+
+    /** Journals are named after their channel id followed by this suffix. */
+    static final String FILE_SUFFIX = ".log";
+
+    private static final int MAGIC = 0x54564a4c; // "TVJL"
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 24;
+
+    private final File mFile;
+    private final long mGeneration;
+
+    /** Latest program id and watch next id per movie id, in that order. */
+    private final LongHashMap<long[]> mUpdates = new LongHashMap<>();
+
+    private int mRecordCount;
+
+    private MovieJournal(File file, long generation) {
+        mFile = file;
+        mGeneration = generation;
+    }
+
+    /**
+     * Opens the journal of a channel and replays it into memory.
+     *
+     * @param directory that holds the journals of every channel.
+     * @param channelId of the channel.
+     * @param generation of the channel segment that is currently stored.
+     * @return the journal, empty if none existed or it belonged to another generation.
+     */
+    static MovieJournal open(File directory, long channelId, long generation) {
+        MovieJournal journal =
+                new MovieJournal(new File(directory, channelId + FILE_SUFFIX), generation);
+        if (journal.mFile.exists()) {
+            journal.replay();
+        }
+        return journal;
+    }
+
+    /** Returns the number of records appended since the last snapshot. */
+    int size() {
+        return mRecordCount;
+    }
+
+    long getGeneration() {
+        return mGeneration;
+    }
+
+    /** Applies the journaled ids to a movie read from the snapshot. */
+    void apply(Movie movie) {
+        long[] ids = mUpdates.get(movie.getId());
+        if (ids != null) {
+            movie.setProgramId(ids[0]);
+            movie.setWatchNextId(ids[1]);
+        }
+    }
+
+    /** Applies the journaled ids to the ids of a movie read from the snapshot. */
+    void apply(MovieIds ids, int index) {
+        long movieId = ids.getIds()[index];
+        long[] journaled = mUpdates.get(movieId);
+        if (journaled != null) {
+            ids.set(index, movieId, journaled[0], journaled[1]);
+        }
+    }
+
+    /**
+     * Returns the journaled program id and watch next id of a movie, in that order. The array is
+     * replaced rather than changed by later appends, so it can be kept outside the store's lock.
+     *
+     * @return the ids or null if the movie has no journaled ids.
+     */
+    @Nullable
+    long[] find(long movieId) {
+        return mUpdates.get(movieId);
+    }
+
+    /**
+     * Appends the current ids of the movies and syncs the file.
+     *
+     * @param movies whose program id or watch next id changed.
+     */
+    void append(List<Movie> movies) throws IOException {
+        boolean newFile = !mFile.exists() || mFile.length() < HEADER_SIZE;
+        ByteBuffer buffer =
+                ByteBuffer.allocate((newFile ? HEADER_SIZE : 0) + movies.size() * RECORD_SIZE);
+        if (newFile) {
+            buffer.putInt(MAGIC);
+            buffer.putLong(mGeneration);
+        }
+        for (Movie movie : movies) {
+            buffer.putLong(movie.getId());
+            buffer.putLong(movie.getProgramId());
+            buffer.putLong(movie.getWatchNextId());
+        }
+        try (FileOutputStream stream = new FileOutputStream(mFile, !newFile)) {
+            stream.write(buffer.array());
+            stream.getFD().sync();
+        }
+        for (Movie movie : movies) {
+            mUpdates.put(movie.getId(), new long[] {movie.getProgramId(), movie.getWatchNextId()});
+        }
+        mRecordCount += movies.size();
+    }
+
+    /** Deletes the journal once its records have been folded into a new snapshot. */
+    void delete() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "Could not delete " + mFile);
+        }
+        mUpdates.clear();
+        mRecordCount = 0;
+    }
+
+    private void replay() {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            long length = file.length();
+            if (length < HEADER_SIZE
+                    || file.readInt() != MAGIC
+                    || file.readLong() != mGeneration) {
+                Log.d(TAG, "Discarding stale journal " + mFile);
+                file.setLength(0);
+                return;
+            }
+            int records = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+            long validLength = HEADER_SIZE + (long) records * RECORD_SIZE;
+            if (validLength != length) {
+                // The last append was interrupted, drop the torn record so later ones line up.
+                Log.w(TAG, "Truncating incomplete record at the end of " + mFile);
+                file.setLength(validLength);
+            }
+            byte[] bytes = new byte[records * RECORD_SIZE];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < records; ++i) {
+                long movieId = buffer.getLong();
+                mUpdates.put(movieId, new long[] {buffer.getLong(), buffer.getLong()});
+            }
+            mRecordCount = records;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + mFile, e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of a stored movie with the same getters as {@link Movie}.
+ *
+ * <p>A view is pointed at a movie by each lookup it is passed to, such as {@link
+ * MockDatabase#findMovieById(android.content.Context, long, long, MovieView)}, so a single
+ * instance can serve many lookups. When the movie comes from the memory-mapped catalog file, the
+ * view reads each field from the record only when it is asked for: strings are only decoded by
+ * their getters, and strings taken as a whole from the dictionary of the content segment are
+ * shared and not copied.
+ *
+ * <p>A view holds the movie it was last pointed at until the next lookup. It is not thread safe.
+ */
+public final class MovieView {
+
+    private static final int TITLE = 0;
+    private static final int DESCRIPTION = 1;
+    private static final int STUDIO = 2;
+    private static final int CATEGORY = 3;
+    private static final int VIDEO_URL = 4;
+    private static final int CARD_IMAGE_URL = 5;
+    private static final int BACKGROUND_IMAGE_URL = 6;
+
+    /** The movie, if the view is backed by one that is already in memory. */
+    @Nullable private Movie mMovie;
+
+    // The record, if the view is backed by the catalog file.
+    @Nullable private ByteBuffer mBuffer;
+    private int mOffset;
+    @Nullable private String[] mDictionary;
+    private long mProgramId;
+    private long mWatchNextId;
+
+    /** Offsets of the string fields of the record, found on the first read of a string. */
+    private final int[] mStringOffsets = new int[MappedMovieStore.STRING_FIELD_COUNT];
+
+    private boolean mStringsLocated;
+
+    /**
+     * Points the view at a movie that is already in memory. The movie must not change while the
+     * view is pointed at it.
+     */
+    void reset(Movie movie) {
+        mMovie = movie;
+        mBuffer = null;
+        mDictionary = null;
+    }
+
+    /**
+     * Points the view at a record of the catalog file. The ids of a channel's movie are resolved by
+     * the store, since the record may hold content shared with other channels.
+     *
+     * @param buffer holding the record, not used by anything else while the view is pointed at it.
+     * @param offset of the record in the buffer.
+     * @param dictionary of the content segment.
+     * @param programId of the movie in the channel it was looked up in.
+     * @param watchNextId of the movie in the channel it was looked up in.
+     */
+    void reset(
+            ByteBuffer buffer,
+            int offset,
+            String[] dictionary,
+            long programId,
+            long watchNextId) {
+        mMovie = null;
+        mBuffer = buffer;
+        mOffset = offset;
+        mDictionary = dictionary;
+        mProgramId = programId;
+        mWatchNextId = watchNextId;
+        mStringsLocated = false;
+    }
+
+    public long getId() {
+        return mMovie != null ? mMovie.getId() : mBuffer.getLong(mOffset);
+    }
+
+    public long getProgramId() {
+        return mMovie != null ? mMovie.getProgramId() : mProgramId;
+    }
+
+    public long getWatchNextId() {
+        return mMovie != null ? mMovie.getWatchNextId() : mWatchNextId;
+    }
+
+    public String getTitle() {
+        return mMovie != null ? mMovie.getTitle() : readString(TITLE);
+    }
+
+    public String getDescription() {
+        return mMovie != null ? mMovie.getDescription() : readString(DESCRIPTION);
+    }
+
+    public String getStudio() {
+        return mMovie != null ? mMovie.getStudio() : readString(STUDIO);
+    }
+
+    public String getVideoUrl() {
+        return mMovie != null ? mMovie.getVideoUrl() : readString(VIDEO_URL);
+    }
+
+    public String getBackgroundImageUrl() {
+        return mMovie != null ? mMovie.getBackgroundImageUrl() : readString(BACKGROUND_IMAGE_URL);
+    }
+
+    public String getCardImageUrl() {
+        return mMovie != null ? mMovie.getCardImageUrl() : readString(CARD_IMAGE_URL);
+    }
+
+    public String getCategory() {
+        return mMovie != null ? mMovie.getCategory() : readString(CATEGORY);
+    }
+
+    /** Returns a copy of the movie that stays valid after the view moves on. */
+    public Movie toMovie() {
+        if (mMovie != null) {
+            return new Movie(mMovie);
+        }
+        Movie movie = new Movie();
+        movie.setId(getId());
+        movie.setProgramId(getProgramId());
+        movie.setWatchNextId(getWatchNextId());
+        movie.setTitle(getTitle());
+        movie.setDescription(getDescription());
+        movie.setStudio(getStudio());
+        movie.setCategory(getCategory());
+        movie.setVideoUrl(getVideoUrl());
+        movie.setCardImageUrl(getCardImageUrl());
+        movie.setBackgroundImageUrl(getBackgroundImageUrl());
+        return movie;
+    }
+
+    @Nullable
+    private String readString(int field) {
+        if (!mStringsLocated) {
+            MappedMovieStore.locateStrings(mBuffer, mOffset, mStringOffsets);
+            mStringsLocated = true;
+        }
+        mBuffer.position(mStringOffsets[field]);
+        return MappedMovieStore.readString(mBuffer, mDictionary);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import com.example.android.tv.recommendations.util.SharedPreferencesHelper;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stores the catalog as JSON in {@link SharedPreferences} through {@link SharedPreferencesHelper},
+ * the way the app originally did. Every write serializes the whole list of a channel.
+ */
+final class SharedPreferencesCatalogStore implements CatalogStore {
+
+    private final Context mContext;
+
+    SharedPreferencesCatalogStore(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean isLegacyCatalogImported() {
+        return SharedPreferencesHelper.readLegacyCatalogImported(mContext);
+    }
+
+    @Override
+    public void setLegacyCatalogImported() {
+        SharedPreferencesHelper.storeLegacyCatalogImported(mContext);
+    }
+
+    @Override
+    public List<Subscription> readSubscriptions() {
+        return SharedPreferencesHelper.readSubscriptions(mContext);
+    }
+
+    @Override
+    public void writeSubscriptions(List<Subscription> subscriptions) {
+        SharedPreferencesHelper.storeSubscriptions(mContext, subscriptions);
+    }
+
+    @Override
+    public List<Movie> readMovies(long channelId) {
+        return SharedPreferencesHelper.readMovies(mContext, channelId);
+    }
+
+    /** The JSON array has to be parsed in full either way, so the movies are projected. */
+    @Override
+    public MovieIds readMovieIds(long channelId) {
+        return MovieIds.of(readMovies(channelId));
+    }
+
+    @Nullable
+    @Override
+    public Movie findMovie(long channelId, long movieId) {
+        for (Movie movie : readMovies(channelId)) {
+            if (movie.getId() == movieId) {
+                return movie;
+            }
+        }
+        return null;
+    }
+
+    /** The JSON array is parsed in full either way, the view is backed by the decoded movie. */
+    @Override
+    public boolean findMovie(long channelId, long movieId, MovieView view) {
+        Movie movie = findMovie(channelId, movieId);
+        if (movie == null) {
+            return false;
+        }
+        view.reset(movie);
+        return true;
+    }
+
+    @Override
+    public void writeMovies(long channelId, List<Movie> movies) {
+        importMovies(channelId, movies.iterator());
+    }
+
+    /** The movies are serialized into the JSON string as they are read. */
+    @Override
+    public void importMovies(long channelId, Iterator<Movie> movies) {
+        SharedPreferencesHelper.storeMovies(mContext, channelId, new DistinctMovies(movies));
+    }
+
+    @Override
+    public void updateMovies(long channelId, List<Movie> updatedMovies, List<Movie> allMovies) {
+        writeMovies(channelId, allMovies);
+    }
+
+    @Override
+    public long deleteOrphanedChannels(Set<Long> channelIds) {
+        return SharedPreferencesHelper.deleteMoviesExcept(mContext, channelIds);
+    }
+
+    /** Skips the movies whose id was seen before, the JSON array keeps each movie once. */
+    private static final class DistinctMovies implements Iterator<Movie> {
+
+        private final Iterator<Movie> mMovies;
+        private final LongHashMap<Boolean> mSeen = new LongHashMap<>();
+        private Movie mNext;
+
+        DistinctMovies(Iterator<Movie> movies) {
+            mMovies = movies;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (mNext == null && mMovies.hasNext()) {
+                Movie movie = mMovies.next();
+                if (mSeen.put(movie.getId(), Boolean.TRUE) == null) {
+                    mNext = movie;
+                }
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public Movie next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Movie movie = mNext;
+            mNext = null;
+            return movie;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores subscriptions and movies in a SQLite database.
+ *
+ * <p>The content of a movie is stored once in the movies table, keyed by movie id, however many
+ * channels it is a member of. Each channel keeps its membership rows in a table of its own, keyed
+ * by channel id and movie id, with the program id and watch next id of the movie in that channel
+ * and the position it was saved at, so reading a channel returns the movies in saved order. Writes
+ * of a whole list run as one transaction through precompiled statements.
+ */
+final class SqliteCatalogStore implements CatalogStore {
+
+    private static final String DATABASE_NAME = "catalog.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_MOVIES = "movies";
+    private static final String TABLE_CHANNEL_MOVIES = "channel_movies";
+    private static final String TABLE_SUBSCRIPTIONS = "subscriptions";
+    private static final String TABLE_METADATA = "metadata";
+
+    /** Key of the metadata row that exists once the legacy catalog has been imported. */
+    private static final String KEY_LEGACY_CATALOG_IMPORTED = "legacy_catalog_imported";
+
+    private static final String COLUMN_CHANNEL_ID = "channel_id";
+    private static final String COLUMN_POSITION = "position";
+
+    private static final String[] MOVIE_COLUMNS = {
+        "movie_id",
+        "program_id",
+        "watch_next_id",
+        "title",
+        "description",
+        "studio",
+        "category",
+        "video_url",
+        "card_image_url",
+        "background_image_url"
+    };
+
+    /** Columns of the movies table, the content shared by every channel. */
+    private static final String[] CONTENT_COLUMNS = {
+        "movie_id",
+        "title",
+        "description",
+        "studio",
+        "category",
+        "video_url",
+        "card_image_url",
+        "background_image_url"
+    };
+
+    /** Columns of the channel movies table. */
+    private static final String[] MEMBER_COLUMNS = {
+        COLUMN_CHANNEL_ID, COLUMN_POSITION, "movie_id", "program_id", "watch_next_id"
+    };
+
+    private static final String[] SUBSCRIPTION_COLUMNS = {
+        COLUMN_CHANNEL_ID, "name", "description", "app_link_intent_uri", "channel_logo"
+    };
+
+    private static final String SELECT_MOVIES =
+            "SELECT "
+                    + join(MOVIE_COLUMNS)
+                    + " FROM "
+                    + TABLE_CHANNEL_MOVIES
+                    + " JOIN "
+                    + TABLE_MOVIES
+                    + " USING (movie_id) WHERE "
+                    + COLUMN_CHANNEL_ID
+                    + " = ?";
+
+    /** Selects only the id columns, in the order of {@link #MOVIE_COLUMNS}. */
+    private static final String SELECT_MOVIE_IDS =
+            "SELECT movie_id, program_id, watch_next_id FROM "
+                    + TABLE_CHANNEL_MOVIES
+                    + " WHERE "
+                    + COLUMN_CHANNEL_ID
+                    + " = ?";
+
+    private static final String UPSERT_CONTENT =
+            "INSERT OR REPLACE INTO "
+                    + TABLE_MOVIES
+                    + " ("
+                    + join(CONTENT_COLUMNS)
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Inserts or replaces a member, keeping its position or appending it to the channel. */
+    private static final String UPSERT_MEMBER =
+            "INSERT OR REPLACE INTO "
+                    + TABLE_CHANNEL_MOVIES
+                    + " ("
+                    + join(MEMBER_COLUMNS)
+                    + ") VALUES (?1, COALESCE((SELECT position FROM channel_movies"
+                    + " WHERE channel_id = ?1 AND movie_id = ?2),"
+                    + " (SELECT IFNULL(MAX(position), -1) + 1 FROM channel_movies"
+                    + " WHERE channel_id = ?1)),"
+                    + " ?2, ?3, ?4)";
+
+    /** Inserts a member unless the channel already has it, so a repeated movie keeps its first. */
+    private static final String INSERT_MEMBER =
+            "INSERT OR IGNORE INTO "
+                    + TABLE_CHANNEL_MOVIES
+                    + " ("
+                    + join(MEMBER_COLUMNS)
+                    + ") VALUES (?, ?, ?, ?, ?)";
+
+    /** Replaces a subscription with the same name, so the last of repeated names is kept. */
+    private static final String UPSERT_SUBSCRIPTION =
+            "INSERT OR REPLACE INTO "
+                    + TABLE_SUBSCRIPTIONS
+                    + " ("
+                    + COLUMN_POSITION
+                    + ", "
+                    + join(SUBSCRIPTION_COLUMNS)
+                    + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static SqliteCatalogStore sInstance;
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    // Compiled lazily and only used while holding the lock on this.
+    private SQLiteStatement mUpsertContent;
+    private SQLiteStatement mInsertMember;
+    private SQLiteStatement mUpsertMember;
+    private SQLiteStatement mUpsertSubscription;
+
+    /**
+     * Opens a store over the catalog database. Use {@link #getInstance} outside of tests, only one
+     * store may use the database at a time.
+     *
+     * @param context used for opening the database.
+     */
+    @VisibleForTesting
+    SqliteCatalogStore(Context context) {
+        mOpenHelper = new OpenHelper(context);
+    }
+
+    /**
+     * Returns the store backed by the catalog database.
+     *
+     * @param context used for opening the database.
+     * @return the process wide store.
+     */
+    static synchronized SqliteCatalogStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SqliteCatalogStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public synchronized boolean isLegacyCatalogImported() {
+        return DatabaseUtils.longForQuery(
+                        mOpenHelper.getReadableDatabase(),
+                        "SELECT COUNT(*) FROM " + TABLE_METADATA + " WHERE key = ?",
+                        new String[] {KEY_LEGACY_CATALOG_IMPORTED})
+                > 0;
+    }
+
+    @Override
+    public synchronized void setLegacyCatalogImported() {
+        mOpenHelper
+                .getWritableDatabase()
+                .execSQL(
+                        "INSERT OR REPLACE INTO " + TABLE_METADATA + " (key, value) VALUES (?, 1)",
+                        new Object[] {KEY_LEGACY_CATALOG_IMPORTED});
+    }
+
+    @Override
+    public synchronized List<Movie> readMovies(long channelId) {
+        try (Cursor cursor =
+                mOpenHelper
+                        .getReadableDatabase()
+                        .rawQuery(
+                                SELECT_MOVIES + " ORDER BY " + COLUMN_POSITION,
+                                new String[] {String.valueOf(channelId)})) {
+            List<Movie> movies = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                movies.add(readMovie(cursor));
+            }
+            return movies;
+        }
+    }
+
+    @Override
+    public synchronized MovieIds readMovieIds(long channelId) {
+        try (Cursor cursor =
+                mOpenHelper
+                        .getReadableDatabase()
+                        .rawQuery(
+                                SELECT_MOVIE_IDS + " ORDER BY " + COLUMN_POSITION,
+                                new String[] {String.valueOf(channelId)})) {
+            MovieIds ids = new MovieIds(cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); ++i) {
+                ids.set(i, cursor.getLong(0), cursor.getLong(1), cursor.getLong(2));
+            }
+            return ids;
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized Movie findMovie(long channelId, long movieId) {
+        try (Cursor cursor =
+                mOpenHelper
+                        .getReadableDatabase()
+                        .rawQuery(
+                                SELECT_MOVIES + " AND movie_id = ?",
+                                new String[] {
+                                    String.valueOf(channelId), String.valueOf(movieId)
+                                })) {
+            return cursor.moveToFirst() ? readMovie(cursor) : null;
+        }
+    }
+
+    /** Rows are decoded by the cursor either way, the view is backed by the decoded movie. */
+    @Override
+    public boolean findMovie(long channelId, long movieId, MovieView view) {
+        Movie movie = findMovie(channelId, movieId);
+        if (movie == null) {
+            return false;
+        }
+        view.reset(movie);
+        return true;
+    }
+
+    @Override
+    public synchronized void writeMovies(long channelId, List<Movie> movies) {
+        importMovies(channelId, movies.iterator());
+    }
+
+    /**
+     * Replaces the members of the channel and the content of each movie as the movies are read, in
+     * one transaction that a failing stream aborts. A movie that is already a member is skipped.
+     */
+    @Override
+    public synchronized void importMovies(long channelId, Iterator<Movie> movies) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        compileMovieStatements(db);
+        db.beginTransaction();
+        try {
+            db.delete(
+                    TABLE_CHANNEL_MOVIES,
+                    COLUMN_CHANNEL_ID + " = ?",
+                    new String[] {String.valueOf(channelId)});
+            for (int position = 0; movies.hasNext(); ++position) {
+                Movie movie = movies.next();
+                mInsertMember.bindLong(1, channelId);
+                mInsertMember.bindLong(2, position);
+                bindIds(mInsertMember, 3, movie);
+                if (mInsertMember.executeInsert() != -1) {
+                    bindContent(mUpsertContent, movie);
+                    mUpsertContent.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized void updateMovies(
+            long channelId, List<Movie> updatedMovies, List<Movie> allMovies) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        compileMovieStatements(db);
+        db.beginTransaction();
+        try {
+            for (Movie movie : updatedMovies) {
+                bindContent(mUpsertContent, movie);
+                mUpsertContent.executeInsert();
+                mUpsertMember.bindLong(1, channelId);
+                bindIds(mUpsertMember, 2, movie);
+                mUpsertMember.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the members of orphaned channels in one statement, then the content of the movies
+     * that no channel refers to any more.
+     *
+     * @return the size of the pages that were freed for reuse by the deletion.
+     */
+    @Override
+    public synchronized long deleteOrphanedChannels(Set<Long> channelIds) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        StringBuilder where = new StringBuilder(COLUMN_CHANNEL_ID).append(" NOT IN (");
+        for (Long channelId : channelIds) {
+            if (where.charAt(where.length() - 1) != '(') {
+                where.append(", ");
+            }
+            where.append(channelId);
+        }
+        int rows = db.delete(TABLE_CHANNEL_MOVIES, where.append(')').toString(), null);
+        rows +=
+                db.delete(
+                        TABLE_MOVIES,
+                        "movie_id NOT IN (SELECT movie_id FROM " + TABLE_CHANNEL_MOVIES + ")",
+                        null);
+        if (rows == 0) {
+            return 0;
+        }
+        long freedPages =
+                DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) - freePages;
+        return Math.max(0, freedPages) * db.getPageSize();
+    }
+
+    @Override
+    public synchronized List<Subscription> readSubscriptions() {
+        try (Cursor cursor =
+                mOpenHelper
+                        .getReadableDatabase()
+                        .query(
+                                TABLE_SUBSCRIPTIONS,
+                                SUBSCRIPTION_COLUMNS,
+                                null,
+                                null,
+                                null,
+                                null,
+                                COLUMN_POSITION)) {
+            List<Subscription> subscriptions = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Subscription subscription = new Subscription();
+                subscription.setChannelId(cursor.getLong(0));
+                subscription.setName(cursor.getString(1));
+                subscription.setDescription(cursor.getString(2));
+                subscription.setAppLinkIntentUri(cursor.getString(3));
+                subscription.setChannelLogo(cursor.getInt(4));
+                subscriptions.add(subscription);
+            }
+            return subscriptions;
+        }
+    }
+
+    /** Replaces every subscription in one transaction. */
+    @Override
+    public synchronized void writeSubscriptions(List<Subscription> subscriptions) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (mUpsertSubscription == null) {
+            mUpsertSubscription = db.compileStatement(UPSERT_SUBSCRIPTION);
+        }
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SUBSCRIPTIONS, null, null);
+            for (int position = 0; position < subscriptions.size(); ++position) {
+                Subscription subscription = subscriptions.get(position);
+                mUpsertSubscription.bindLong(1, position);
+                mUpsertSubscription.bindLong(2, subscription.getChannelId());
+                bindString(mUpsertSubscription, 3, subscription.getName());
+                bindString(mUpsertSubscription, 4, subscription.getDescription());
+                bindString(mUpsertSubscription, 5, subscription.getAppLinkIntentUri());
+                mUpsertSubscription.bindLong(6, subscription.getChannelLogo());
+                mUpsertSubscription.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void compileMovieStatements(SQLiteDatabase db) {
+        if (mUpsertContent == null) {
+            mUpsertContent = db.compileStatement(UPSERT_CONTENT);
+            mInsertMember = db.compileStatement(INSERT_MEMBER);
+            mUpsertMember = db.compileStatement(UPSERT_MEMBER);
+        }
+    }
+
+    /** Binds the columns of {@link #CONTENT_COLUMNS}, starting at the first parameter. */
+    private static void bindContent(SQLiteStatement statement, Movie movie) {
+        statement.bindLong(1, movie.getId());
+        bindString(statement, 2, movie.getTitle());
+        bindString(statement, 3, movie.getDescription());
+        bindString(statement, 4, movie.getStudio());
+        bindString(statement, 5, movie.getCategory());
+        bindString(statement, 6, movie.getVideoUrl());
+        bindString(statement, 7, movie.getCardImageUrl());
+        bindString(statement, 8, movie.getBackgroundImageUrl());
+    }
+
+    /** Binds the movie id, program id and watch next id, in that order. */
+    private static void bindIds(SQLiteStatement statement, int firstIndex, Movie movie) {
+        statement.bindLong(firstIndex, movie.getId());
+        statement.bindLong(firstIndex + 1, movie.getProgramId());
+        statement.bindLong(firstIndex + 2, movie.getWatchNextId());
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static Movie readMovie(Cursor cursor) {
+        Movie movie = new Movie();
+        movie.setId(cursor.getLong(0));
+        movie.setProgramId(cursor.getLong(1));
+        movie.setWatchNextId(cursor.getLong(2));
+        movie.setTitle(cursor.getString(3));
+        movie.setDescription(cursor.getString(4));
+        movie.setStudio(cursor.getString(5));
+        movie.setCategory(cursor.getString(6));
+        movie.setVideoUrl(cursor.getString(7));
+        movie.setCardImageUrl(cursor.getString(8));
+        movie.setBackgroundImageUrl(cursor.getString(9));
+        return movie;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(column);
+        }
+        return builder.toString();
+    }
+
+    private static final class OpenHelper extends SQLiteOpenHelper {
+
+        OpenHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            createMovieTables(db);
+            db.execSQL(
+                    "CREATE TABLE "
+                            + TABLE_SUBSCRIPTIONS
+                            + " (name TEXT PRIMARY KEY,"
+                            + " position INTEGER NOT NULL,"
+                            + " channel_id INTEGER NOT NULL,"
+                            + " description TEXT,"
+                            + " app_link_intent_uri TEXT,"
+                            + " channel_logo INTEGER NOT NULL)");
+            db.execSQL(
+                    "CREATE TABLE "
+                            + TABLE_METADATA
+                            + " (key TEXT PRIMARY KEY,"
+                            + " value INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Version 1 is the only version so far.
+        }
+
+        private static void createMovieTables(SQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE "
+                            + TABLE_MOVIES
+                            + " (movie_id INTEGER PRIMARY KEY,"
+                            + " title TEXT,"
+                            + " description TEXT,"
+                            + " studio TEXT,"
+                            + " category TEXT,"
+                            + " video_url TEXT,"
+                            + " card_image_url TEXT,"
+                            + " background_image_url TEXT)");
+            db.execSQL(
+                    "CREATE TABLE "
+                            + TABLE_CHANNEL_MOVIES
+                            + " (channel_id INTEGER NOT NULL,"
+                            + " position INTEGER NOT NULL,"
+                            + " movie_id INTEGER NOT NULL,"
+                            + " program_id INTEGER NOT NULL,"
+                            + " watch_next_id INTEGER NOT NULL,"
+                            + " PRIMARY KEY (channel_id, movie_id))");
+        }
+    }
+}
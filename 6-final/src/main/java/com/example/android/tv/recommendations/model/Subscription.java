@@ -25,6 +25,15 @@ public class Subscription {
     /** Constructor for Gson to use. */
     public Subscription() {}
 
+    /** Creates a copy of a subscription. */
+    public Subscription(Subscription other) {
+        this.channelId = other.channelId;
+        this.name = other.name;
+        this.description = other.description;
+        this.appLinkIntentUri = other.appLinkIntentUri;
+        this.channelLogo = other.channelLogo;
+    }
+
     private Subscription(
             String name, String description, String appLinkIntentUri, int channelLogo) {
         this.name = name;
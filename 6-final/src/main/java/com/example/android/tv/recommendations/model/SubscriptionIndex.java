@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the persisted subscriptions, indexed by channel id and by name.
+ *
+ * <p>The indexes are updated incrementally as subscriptions are saved, so lookups never have to
+ * read or scan the persisted list. Subscriptions are mutable, so they are copied on the way in and
+ * on the way out, and a caller changing the one it got cannot corrupt the indexes.
+ */
+final class SubscriptionIndex {
+
+    private final List<Subscription> mSubscriptions;
+    private final LongHashMap<Subscription> mByChannelId;
+    private final Map<String, Subscription> mByName;
+
+    SubscriptionIndex(List<Subscription> subscriptions) {
+        mSubscriptions = new ArrayList<>(subscriptions.size());
+        mByChannelId = new LongHashMap<>(subscriptions.size());
+        mByName = new HashMap<>(subscriptions.size() * 2);
+        for (Subscription subscription : subscriptions) {
+            index(subscription);
+        }
+    }
+
+    /** @return copies of the subscriptions in saved order. */
+    synchronized List<Subscription> getAll() {
+        return copyAll();
+    }
+
+    /** @return a copy of the subscription, or null if none is associated with the channel. */
+    @Nullable
+    synchronized Subscription findByChannelId(long channelId) {
+        return copy(mByChannelId.get(channelId));
+    }
+
+    /** @return a copy of the subscription, or null if none has the name. */
+    @Nullable
+    synchronized Subscription findByName(String name) {
+        return copy(mByName.get(name));
+    }
+
+    /** Replaces every subscription and rebuilds the indexes. */
+    synchronized void replaceAll(List<Subscription> subscriptions) {
+        mSubscriptions.clear();
+        mByChannelId.clear();
+        mByName.clear();
+        for (Subscription subscription : subscriptions) {
+            index(subscription);
+        }
+    }
+
+    /**
+     * Adds the subscription, or replaces the subscription with the same name.
+     *
+     * @return copies of the subscriptions after the update, in saved order.
+     */
+    synchronized List<Subscription> put(Subscription subscription) {
+        index(subscription);
+        return copyAll();
+    }
+
+    /** Holds the lock on this. */
+    private List<Subscription> copyAll() {
+        List<Subscription> copies = new ArrayList<>(mSubscriptions.size());
+        for (Subscription subscription : mSubscriptions) {
+            copies.add(new Subscription(subscription));
+        }
+        return copies;
+    }
+
+    @Nullable
+    private static Subscription copy(@Nullable Subscription subscription) {
+        return subscription == null ? null : new Subscription(subscription);
+    }
+
+    private void index(Subscription original) {
+        Subscription subscription = new Subscription(original);
+        Subscription previous = mByName.put(subscription.getName(), subscription);
+        if (previous == null) {
+            mSubscriptions.add(subscription);
+        } else {
+            if (mByChannelId.get(previous.getChannelId()) == previous) {
+                mByChannelId.remove(previous.getChannelId());
+            }
+            mSubscriptions.set(mSubscriptions.indexOf(previous), subscription);
+        }
+        mByChannelId.put(subscription.getChannelId(), subscription);
+    }
+}
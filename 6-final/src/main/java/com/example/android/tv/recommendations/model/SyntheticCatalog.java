@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import com.example.android.tv.recommendations.R;
+import com.example.android.tv.recommendations.util.AppLinkHelper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a large catalog for scale testing, the same one for the same seed.
+ *
+ * <p>Every movie is derived from its own seed, so a page is generated on demand and nothing is kept
+ * in memory. The channels of neighbouring subscriptions overlap by half, so movies are shared like
+ * in a real catalog. Titles and descriptions vary in length with a long tail, studios and
+ * categories are skewed towards a few popular ones, and descriptions and image URLs often repeat.
+ * Video URLs point at the sample videos, so synthetic movies can be played, and share the prefixes
+ * of their directories.
+ *
+ * <p>Fresh lists replace about {@code churn} of the movies of a channel per generation. Each slot
+ * of a channel is replaced once every {@code 1 / churn} generations, at a phase of its own, so
+ * generation {@code g} differs from generation {@code g - 1} in a stable fraction of the slots.
+ */
+public final class SyntheticCatalog {
+
+    /** Seed of the catalog that {@link MockMovieService} generates. */
+    public static final long DEFAULT_SEED = 0x5eed;
+
+    /** Fraction of the movies of a channel that a fresh list replaces by default. */
+    public static final double DEFAULT_CHURN = 0.1;
+
+    private static final String NAME_PREFIX = "Synthetic ";
+
+    private static final String SAMPLE_VIDEOS =
+            "http://commondatastorage.googleapis.com/android-tv/Sample%20videos/";
+
+    private static final String[] VIDEOS = {
+        "Zeitgeist/Zeitgeist%202010_%20Year%20in%20Review",
+        "Demo%20Slam/Google%20Demo%20Slam_%2020ft%20Search",
+        "April%20Fool's%202013/Introducing%20Gmail%20Blue",
+        "April%20Fool's%202013/Introducing%20Google%20Fiber%20to%20the%20Pole",
+        "April%20Fool's%202013/Introducing%20Google%20Nose"
+    };
+
+    private static final String[] WORDS = {
+        "year", "review", "search", "demo", "blue", "fiber", "pole", "nose", "night", "city",
+        "river", "garden", "machine", "signal", "winter", "summer", "journey", "island", "voice",
+        "secret", "stone", "light", "shadow", "engine", "harbor", "forest", "story", "game", "road",
+        "mountain", "ocean", "festival", "market", "kitchen", "planet", "museum", "train", "bridge",
+        "desert", "music", "school", "future", "history", "science", "animal", "robot", "paper"
+    };
+
+    private static final String[] STUDIOS = {
+        "Studio Zero", "Studio One", "Studio Two", "Studio Three", "Studio Four", "Northern Lights",
+        "Blue Door Films", "Harbor Pictures", "Tall Tree Media", "Open Field", "Paper Plane",
+        "Red Kite", "Silver Line", "Quiet Room", "Long Table", "Small Hours"
+    };
+
+    private static final String[] CATEGORIES = {
+        "Drama", "Comedy", "Documentary", "Animation", "Action", "Family", "Music", "Science",
+        "Travel", "Sports", "Food", "History"
+    };
+
+    /** Descriptions that many movies share verbatim, like the boilerplate of a real catalog. */
+    private static final int STOCK_DESCRIPTIONS = 8;
+
+    private final long mSeed;
+    private final int mSubscriptionCount;
+    private final int mMoviesPerSubscription;
+    private final double mChurn;
+
+    /** Subscription index by name. */
+    private final Map<String, Integer> mIndexes = new HashMap<>();
+
+    private final String[] mStockDescriptions = new String[STOCK_DESCRIPTIONS];
+
+    /**
+     * @param seed that the whole catalog is derived from.
+     * @param subscriptionCount number of subscriptions, and so channels.
+     * @param moviesPerSubscription number of movies of each channel.
+     * @param churn fraction of the movies of a channel that each fresh list replaces, from 0 to 1.
+     */
+    public SyntheticCatalog(
+            long seed, int subscriptionCount, int moviesPerSubscription, double churn) {
+        mSeed = seed;
+        mSubscriptionCount = subscriptionCount;
+        mMoviesPerSubscription = moviesPerSubscription;
+        mChurn = churn;
+        for (int i = 0; i < subscriptionCount; ++i) {
+            mIndexes.put(NAME_PREFIX + (i + 1), i);
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < STOCK_DESCRIPTIONS; ++i) {
+            mStockDescriptions[i] = createDescription(random);
+        }
+    }
+
+    /** Returns the subscriptions of the catalog, one channel each. */
+    public List<Subscription> createSubscriptions() {
+        List<Subscription> subscriptions = new ArrayList<>(mSubscriptionCount);
+        Random random = new Random(mix(mSeed, -1));
+        for (int i = 0; i < mSubscriptionCount; ++i) {
+            String name = NAME_PREFIX + (i + 1);
+            subscriptions.add(
+                    Subscription.createSubscription(
+                            name,
+                            createSentence(random, 4, 10),
+                            AppLinkHelper.buildBrowseUri(name).toString(),
+                            R.drawable.ic_movie_blue_80dp));
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Returns the movies of a subscription's channel.
+     *
+     * @param subscriptionName of one of {@link #createSubscriptions()}. Other subscriptions get the
+     *     movies of the first one.
+     * @param generation of the list, 0 for the list a channel is created with. Each later
+     *     generation replaces about {@code churn} of the movies of the previous one.
+     * @return a source that generates each page when it is fetched.
+     */
+    public CatalogSource getCatalogSource(String subscriptionName, final long generation) {
+        Integer index = mIndexes.get(subscriptionName);
+        final int subscription = index == null ? 0 : index;
+        return new CatalogSource() {
+            @Override
+            public Page fetchPage(@Nullable String cursor, int pageSize) {
+                int start = cursor == null ? 0 : Integer.parseInt(cursor);
+                int end = Math.min(mMoviesPerSubscription, start + pageSize);
+                List<Movie> movies = new ArrayList<>(end - start);
+                for (int slot = start; slot < end; ++slot) {
+                    movies.add(createMovie(movieKey(subscription, slot, generation)));
+                }
+                return new Page(movies, end == mMoviesPerSubscription ? null : String.valueOf(end));
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /** Returns the key of the movie in a slot of a channel, which every field is derived from. */
+    private long movieKey(int subscription, int slot, long generation) {
+        // Neighbouring channels share half of their movies.
+        long shared = (long) subscription * Math.max(1, mMoviesPerSubscription / 2) + slot;
+        if (mChurn <= 0 || generation == 0) {
+            return shared;
+        }
+        // The slot is replaced whenever its own phase crosses a whole period.
+        long period = Math.max(1, Math.round(1 / mChurn));
+        long phase = (mix(mSeed, shared) & Long.MAX_VALUE) % period;
+        long replacements = (generation + phase) / period - phase / period;
+        return replacements == 0 ? shared : mix(shared, replacements) & Long.MAX_VALUE;
+    }
+
+    private Movie createMovie(long key) {
+        Random random = new Random(mix(mSeed, key));
+        String title = capitalize(createSentence(random, 1, 8));
+        String video = VIDEOS[skewed(random, VIDEOS.length)];
+
+        Movie movie = new Movie();
+        movie.setTitle(title.substring(0, title.length() - 1));
+        movie.setDescription(
+                random.nextInt(3) == 0
+                        ? mStockDescriptions[skewed(random, STOCK_DESCRIPTIONS)]
+                        : createDescription(random));
+        movie.setStudio(random.nextInt(10) == 0 ? null : STUDIOS[skewed(random, STUDIOS.length)]);
+        movie.setCategory(CATEGORIES[skewed(random, CATEGORIES.length)]);
+        movie.setVideoUrl(SAMPLE_VIDEOS + video + ".mp4?synthetic=" + key);
+        movie.setCardImageUrl(SAMPLE_VIDEOS + video + "/card.jpg");
+        movie.setBackgroundImageUrl(SAMPLE_VIDEOS + video + "/bg.jpg");
+        movie.setId(MockMovieService.createMovieId(movie.getVideoUrl()));
+        return movie;
+    }
+
+    private static String createDescription(Random random) {
+        StringBuilder description = new StringBuilder();
+        // Mostly a sentence or two, now and then a long synopsis.
+        int sentences = 1 + (int) (-Math.log(1 - random.nextDouble()) * 2);
+        for (int i = 0; i < Math.min(sentences, 12); ++i) {
+            if (i > 0) {
+                description.append(' ');
+            }
+            description.append(capitalize(createSentence(random, 5, 20)));
+        }
+        return description.toString();
+    }
+
+    /** Returns lower case words ending with a period, usually nearer the minimum length. */
+    private static String createSentence(Random random, int minWords, int maxWords) {
+        int words = minWords + skewed(random, maxWords - minWords + 1);
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; ++i) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.append('.').toString();
+    }
+
+    private static String capitalize(String value) {
+        return Character.toUpperCase(value.charAt(0)) + value.substring(1);
+    }
+
+    /** Returns a value below {@code bound}, low values being much more likely than high ones. */
+    private static int skewed(Random random, int bound) {
+        double value = random.nextDouble();
+        return (int) (value * value * bound);
+    }
+
+    /** Mixes two values into a seed, see the finalizer of SplitMix64. */
+    private static long mix(long a, long b) {
+        long z = a * 0x9e3779b97f4a7c15L + b;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the movies of each channel in memory and writes them back to a {@link CatalogStore} lazily.
+ *
+ * <p>Readers see an immutable snapshot of each channel, published through an {@link
+ * AtomicReference}. Reads never take a lock once a channel is loaded and never see a list that is
+ * half updated. Writers build a new snapshot of the channel and swap it in. Movies are copied on
+ * the way in and on the way out, so callers that modify a movie they read or saved do not change a
+ * published snapshot.
+ *
+ * <p>Writers of a channel hold one of {@link #LOCK_STRIPES} locks picked by the channel id, so
+ * writes to the same channel never clobber each other while unrelated channels rarely contend.
+ * {@link #updateMovie} and {@link #replaceMovie} use the same lock to read, change and write movies
+ * atomically.
+ *
+ * <p>Mutations are visible to readers immediately and mark their channel as dirty. Dirty channels
+ * are written in one batch, either {@link #FLUSH_DELAY_MS} after the first unflushed mutation or
+ * when {@link #flush()} or {@link #requestFlush()} is called. However many times a channel changed
+ * in between, it is serialized once per flush. Channels whose existing movies were only saved one
+ * by one are handed to {@link CatalogStore#updateMovies} so that id changes can be journaled
+ * instead of rewriting the channel.
+ */
+final class WriteBehindMovieCache {
+
+    private static final String TAG = "WriteBehindMovieCache";
+
+    private static final long FLUSH_DELAY_MS = 2000L;
+
+    private static final int LOCK_STRIPES = 16;
+
+    private final CatalogStore mStore;
+    private final Handler mFlushHandler;
+
+    /**
+     * Snapshots of the loaded channels by channel id. The map is replaced as a whole on every
+     * write, a published map and its snapshots are never modified.
+     */
+    private final AtomicReference<LongHashMap<ChannelSnapshot>> mSnapshots =
+            new AtomicReference<>(new LongHashMap<ChannelSnapshot>());
+
+    /** Serializes the writers of the channels whose ids map to the same stripe. */
+    private final Object[] mChannelLocks = new Object[LOCK_STRIPES];
+
+    // Guarded by this. Taken after the channel lock when both are needed.
+    private final LongHashMap<Map<Long, Movie>> mUpdatedMovies = new LongHashMap<>();
+    private final Set<Long> mDirtyChannels = new LinkedHashSet<>();
+    private final Set<Long> mReplacedChannels = new HashSet<>();
+    private boolean mFlushScheduled;
+
+    /** Counts the writes, each channel remembers the count at its last write. Guarded by this. */
+    private long mWriteGeneration;
+    private final LongHashMap<Long> mWriteGenerations = new LongHashMap<>();
+
+    /** Serializes flushes so that an older list never overwrites a newer one on disk. */
+    private final Object mFlushLock = new Object();
+
+    private final Runnable mFlushRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            };
+
+    WriteBehindMovieCache(CatalogStore store) {
+        mStore = store;
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            mChannelLocks[i] = new Object();
+        }
+        HandlerThread thread =
+                new HandlerThread("MovieCacheFlusher", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mFlushHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns a copy of the movies of a channel, loading them from the store on first access.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return a mutable list of movies or an empty list if none exist.
+     */
+    List<Movie> readMovies(long channelId) {
+        List<Movie> snapshot = getSnapshot(channelId).mMovies;
+        List<Movie> movies = new ArrayList<>(snapshot.size());
+        for (Movie movie : snapshot) {
+            movies.add(new Movie(movie));
+        }
+        return movies;
+    }
+
+    /**
+     * Returns the ids of the movies of a channel. Channels that are not in memory are projected by
+     * the store and not loaded into the cache.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @return the id columns in saved order.
+     */
+    MovieIds readMovieIds(long channelId) {
+        ChannelSnapshot snapshot = mSnapshots.get().get(channelId);
+        return snapshot != null ? MovieIds.of(snapshot.mMovies) : mStore.readMovieIds(channelId);
+    }
+
+    /**
+     * Finds a movie of a channel by its id.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @return a copy of the movie or null if it does not exist.
+     */
+    @Nullable
+    Movie findMovie(long channelId, long movieId) {
+        Movie movie = getSnapshot(channelId).mMoviesById.get(movieId);
+        return movie != null ? new Movie(movie) : null;
+    }
+
+    /**
+     * Points a view at a movie of a channel. Channels that are not in memory are looked up by the
+     * store and not loaded into the cache.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @param view to point at the movie.
+     * @return true if the movie exists.
+     */
+    boolean findMovie(long channelId, long movieId, MovieView view) {
+        ChannelSnapshot snapshot = mSnapshots.get().get(channelId);
+        if (snapshot == null) {
+            return mStore.findMovie(channelId, movieId, view);
+        }
+        // Snapshots are never modified, the view can be backed by the cached movie itself.
+        Movie movie = snapshot.mMoviesById.get(movieId);
+        if (movie == null) {
+            return false;
+        }
+        view.reset(movie);
+        return true;
+    }
+
+    /**
+     * Replaces the movies of a channel. A movie that occurs more than once is kept at its first
+     * position only, like the store keeps it.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    void writeMovies(long channelId, List<Movie> movies) {
+        List<Movie> copies = new ArrayList<>(movies.size());
+        LongHashMap<Boolean> seen = new LongHashMap<>(movies.size());
+        for (Movie movie : movies) {
+            if (seen.put(movie.getId(), Boolean.TRUE) == null) {
+                copies.add(new Movie(movie));
+            }
+        }
+        synchronized (getChannelLock(channelId)) {
+            publish(channelId, new ChannelSnapshot(copies));
+            synchronized (this) {
+                mUpdatedMovies.remove(channelId);
+                mReplacedChannels.add(channelId);
+                markDirty(channelId);
+            }
+        }
+    }
+
+    /**
+     * Replaces the movies of a channel with the movies of a stream, writing them straight to the
+     * store on the calling thread instead of keeping them in memory. The channel is loaded again
+     * from the store when it is next read. If the stream or the store fails, the exception is
+     * propagated and the channel keeps its movies, including changes not flushed yet.
+     *
+     * <p>Only the channel lock is held while the stream is read, so flushes of other channels are
+     * not held up by it.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    void importMovies(long channelId, Iterator<Movie> movies) {
+        synchronized (getChannelLock(channelId)) {
+            // Pending writes of the channel are taken out while no flush runs, so no flush can
+            // write them after the import. The channel lock keeps new ones from coming in.
+            boolean pending;
+            synchronized (mFlushLock) {
+                synchronized (this) {
+                    markWritten(channelId);
+                    mUpdatedMovies.remove(channelId);
+                    mReplacedChannels.remove(channelId);
+                    pending = mDirtyChannels.remove(channelId);
+                }
+            }
+            try {
+                mStore.importMovies(channelId, movies);
+            } catch (RuntimeException e) {
+                if (pending) {
+                    synchronized (this) {
+                        mReplacedChannels.add(channelId);
+                        markDirty(channelId);
+                    }
+                }
+                throw e;
+            }
+            publish(channelId, null);
+        }
+    }
+
+    /**
+     * Replaces the movie with the same id in a channel, or appends it if the channel does not
+     * contain it yet.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movie to be stored.
+     */
+    void writeMovie(long channelId, Movie movie) {
+        Movie copy = new Movie(movie);
+        synchronized (getChannelLock(channelId)) {
+            putMovie(channelId, copy);
+        }
+    }
+
+    /**
+     * Reads, changes and writes a movie of a channel without any other write to the channel in
+     * between.
+     *
+     * @param channelId of the channel that the movie is associated with.
+     * @param movieId of the movie.
+     * @param mutator that changes a copy of the movie in place. Must not change its id.
+     * @return a copy of the updated movie or null if the channel does not contain the movie.
+     */
+    @Nullable
+    Movie updateMovie(long channelId, long movieId, MockDatabase.MovieMutator mutator) {
+        synchronized (getChannelLock(channelId)) {
+            Movie current = getSnapshot(channelId).mMoviesById.get(movieId);
+            if (current == null) {
+                return null;
+            }
+            Movie updated = new Movie(current);
+            mutator.mutate(updated);
+            if (updated.getId() != movieId) {
+                throw new IllegalArgumentException("The id of movie " + movieId + " changed");
+            }
+            putMovie(channelId, updated);
+            return new Movie(updated);
+        }
+    }
+
+    /**
+     * Puts a movie in the place of another movie of a channel, for a program that now shows the new
+     * movie. The new movie takes the position and program id of the old one. If the channel holds
+     * the new movie at another position already, the old movie takes that position and program id
+     * instead, so the channel keeps its length and holds each movie once. A movie keeps its watch
+     * next id wherever it moves.
+     *
+     * @param channelId of the channel that the movies are associated with.
+     * @param oldMovieId of the movie to be replaced.
+     * @param newMovie to be stored in its place.
+     * @return a copy of the stored new movie or null if the channel does not contain the old one.
+     */
+    @Nullable
+    Movie replaceMovie(long channelId, long oldMovieId, Movie newMovie) {
+        Movie replacement = new Movie(newMovie);
+        synchronized (getChannelLock(channelId)) {
+            ChannelSnapshot snapshot = getSnapshot(channelId);
+            Movie old = snapshot.mMoviesById.get(oldMovieId);
+            if (old == null) {
+                return null;
+            }
+            replacement.setProgramId(old.getProgramId());
+            Movie existing = snapshot.mMoviesById.get(replacement.getId());
+            if (existing != null) {
+                replacement.setWatchNextId(existing.getWatchNextId());
+            }
+            if (existing == old) {
+                // Only the content changed, the update can be journaled like any other.
+                putMovie(channelId, replacement);
+                return new Movie(replacement);
+            }
+            Movie displaced = null;
+            if (existing != null) {
+                displaced = new Movie(old);
+                displaced.setProgramId(existing.getProgramId());
+            }
+            publish(channelId, snapshot.replace(old, replacement, existing, displaced));
+            synchronized (this) {
+                // The order changed, which only rewriting the channel stores.
+                mUpdatedMovies.remove(channelId);
+                mReplacedChannels.add(channelId);
+                markDirty(channelId);
+            }
+            return new Movie(replacement);
+        }
+    }
+
+    /**
+     * Writes every dirty channel to the store on the calling thread. If the store fails, the error
+     * is logged and the channels that were not written stay dirty and are retried later.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            List<PendingWrite> batch;
+            synchronized (this) {
+                mFlushHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+                if (mDirtyChannels.isEmpty()) {
+                    return;
+                }
+                LongHashMap<ChannelSnapshot> snapshots = mSnapshots.get();
+                batch = new ArrayList<>(mDirtyChannels.size());
+                for (Long channelId : mDirtyChannels) {
+                    Map<Long, Movie> updatedMovies = mUpdatedMovies.remove(channelId);
+                    ChannelSnapshot snapshot = snapshots.get(channelId);
+                    if (snapshot == null) {
+                        // Dropped since it was marked, there is nothing left to write.
+                        continue;
+                    }
+                    batch.add(
+                            new PendingWrite(
+                                    channelId,
+                                    snapshot.mMovies,
+                                    mReplacedChannels.contains(channelId) || updatedMovies == null
+                                            ? null
+                                            : new ArrayList<>(updatedMovies.values())));
+                }
+                mDirtyChannels.clear();
+                mReplacedChannels.clear();
+            }
+            for (int i = 0; i < batch.size(); ++i) {
+                PendingWrite write = batch.get(i);
+                try {
+                    if (write.mUpdatedMovies == null) {
+                        mStore.writeMovies(write.mChannelId, write.mMovies);
+                    } else {
+                        mStore.updateMovies(write.mChannelId, write.mUpdatedMovies, write.mMovies);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not flush channel " + write.mChannelId, e);
+                    markUnwritten(batch.subList(i, batch.size()));
+                    return;
+                }
+            }
+            Log.d(TAG, "Flushed " + batch.size() + " channel(s)");
+        }
+    }
+
+    /**
+     * Marks the channels of writes that failed or were not attempted dirty again, so the next flush
+     * retries them. Whatever part of a channel the store may have written, the channel is rewritten
+     * as a whole from its current snapshot.
+     */
+    private synchronized void markUnwritten(List<PendingWrite> writes) {
+        LongHashMap<ChannelSnapshot> snapshots = mSnapshots.get();
+        for (PendingWrite write : writes) {
+            if (snapshots.get(write.mChannelId) == null) {
+                // Dropped while it was written, there is nothing left to write.
+                continue;
+            }
+            mUpdatedMovies.remove(write.mChannelId);
+            mReplacedChannels.add(write.mChannelId);
+            markDirty(write.mChannelId);
+        }
+    }
+
+    /** Flushes the dirty channels on the background flush thread as soon as possible. */
+    synchronized void requestFlush() {
+        if (mDirtyChannels.isEmpty()) {
+            return;
+        }
+        mFlushHandler.removeCallbacks(mFlushRunnable);
+        mFlushHandler.post(mFlushRunnable);
+        mFlushScheduled = true;
+    }
+
+    /**
+     * Returns the generation of the last write. Taken before the list of live channels is read, it
+     * tells {@link #deleteOrphanedChannels} which channels were written after the list.
+     */
+    synchronized long getWriteGeneration() {
+        return mWriteGeneration;
+    }
+
+    /**
+     * Deletes the movies of every channel that is not in {@code channelIds}, in memory and in the
+     * store. Channels written after {@code generation} are kept, since they may belong to a
+     * subscription saved after the list was read. Pending writes are flushed first. Runs on the
+     * calling thread.
+     *
+     * @param channelIds of the channels whose movies are kept.
+     * @param generation returned by {@link #getWriteGeneration} before the list was read.
+     * @return an estimate of the number of bytes reclaimed in the store.
+     */
+    long deleteOrphanedChannels(Set<Long> channelIds, long generation) {
+        flush();
+        for (long channelId : mSnapshots.get().keys()) {
+            if (!channelIds.contains(channelId)) {
+                synchronized (getChannelLock(channelId)) {
+                    synchronized (this) {
+                        if (isWrittenAfter(channelId, generation)) {
+                            continue;
+                        }
+                        mUpdatedMovies.remove(channelId);
+                        mReplacedChannels.remove(channelId);
+                        mDirtyChannels.remove(channelId);
+                        mWriteGenerations.remove(channelId);
+                    }
+                    publish(channelId, null);
+                }
+            }
+        }
+        // Flushes hold the flush lock while they write, so a channel they write is either in the
+        // store before the set is built and kept, or written after the delete. Imports mark their
+        // channel written before they start, so the channel of a newer subscription is kept.
+        synchronized (mFlushLock) {
+            Set<Long> keptChannelIds = new HashSet<>(channelIds);
+            synchronized (this) {
+                for (long channelId : mWriteGenerations.keys()) {
+                    if (isWrittenAfter(channelId, generation)) {
+                        keptChannelIds.add(channelId);
+                    }
+                }
+            }
+            return mStore.deleteOrphanedChannels(keptChannelIds);
+        }
+    }
+
+    /** Flushes the dirty channels and stops the flush thread. The cache must not be used after. */
+    void close() {
+        flush();
+        mFlushHandler.getLooper().quitSafely();
+    }
+
+    private ChannelSnapshot getSnapshot(long channelId) {
+        ChannelSnapshot snapshot = mSnapshots.get().get(channelId);
+        return snapshot != null ? snapshot : loadSnapshot(channelId);
+    }
+
+    private ChannelSnapshot loadSnapshot(long channelId) {
+        synchronized (getChannelLock(channelId)) {
+            // Another thread may have loaded or written the channel while this one waited.
+            ChannelSnapshot snapshot = mSnapshots.get().get(channelId);
+            if (snapshot == null) {
+                snapshot = new ChannelSnapshot(mStore.readMovies(channelId));
+                publish(channelId, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /** Publishes a movie owned by the cache. Holds the lock of the channel. */
+    private void putMovie(long channelId, Movie movie) {
+        publish(channelId, getSnapshot(channelId).with(movie));
+        synchronized (this) {
+            if (!mReplacedChannels.contains(channelId)) {
+                Map<Long, Movie> updatedMovies = mUpdatedMovies.get(channelId);
+                if (updatedMovies == null) {
+                    updatedMovies = new LinkedHashMap<>();
+                    mUpdatedMovies.put(channelId, updatedMovies);
+                }
+                updatedMovies.put(movie.getId(), movie);
+            }
+            markDirty(channelId);
+        }
+    }
+
+    /**
+     * Swaps in a copy of the snapshot map with the new snapshot of a channel, or without the
+     * channel if the snapshot is null. Holds the lock of the channel, writers of other channels may
+     * publish concurrently.
+     */
+    private void publish(long channelId, @Nullable ChannelSnapshot snapshot) {
+        while (true) {
+            LongHashMap<ChannelSnapshot> current = mSnapshots.get();
+            LongHashMap<ChannelSnapshot> snapshots = new LongHashMap<>(current);
+            if (snapshot != null) {
+                snapshots.put(channelId, snapshot);
+            } else {
+                snapshots.remove(channelId);
+            }
+            if (mSnapshots.compareAndSet(current, snapshots)) {
+                return;
+            }
+        }
+    }
+
+    private Object getChannelLock(long channelId) {
+        return mChannelLocks[(int) (channelId ^ (channelId >>> 32)) & (LOCK_STRIPES - 1)];
+    }
+
+    private void markDirty(long channelId) {
+        markWritten(channelId);
+        mDirtyChannels.add(channelId);
+        if (!mFlushScheduled) {
+            mFlushHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            mFlushScheduled = true;
+        }
+    }
+
+    /** Holds the lock on this. */
+    private void markWritten(long channelId) {
+        mWriteGenerations.put(channelId, ++mWriteGeneration);
+    }
+
+    /** Holds the lock on this. */
+    private boolean isWrittenAfter(long channelId, long generation) {
+        Long written = mWriteGenerations.get(channelId);
+        return written != null && written > generation;
+    }
+
+    /** Immutable movies of a channel in saved order, indexed by movie id. */
+    private static final class ChannelSnapshot {
+
+        final List<Movie> mMovies;
+        final LongHashMap<Movie> mMoviesById;
+
+        ChannelSnapshot(List<Movie> movies) {
+            mMovies = Collections.unmodifiableList(movies);
+            mMoviesById = new LongHashMap<>(movies.size());
+            for (Movie movie : movies) {
+                mMoviesById.put(movie.getId(), movie);
+            }
+        }
+
+        private ChannelSnapshot(List<Movie> movies, LongHashMap<Movie> moviesById) {
+            mMovies = Collections.unmodifiableList(movies);
+            mMoviesById = moviesById;
+        }
+
+        /** Returns a new snapshot with the movie replaced or appended. */
+        ChannelSnapshot with(Movie movie) {
+            List<Movie> movies = new ArrayList<>(mMovies);
+            LongHashMap<Movie> moviesById = new LongHashMap<>(mMoviesById);
+            Movie previous = moviesById.put(movie.getId(), movie);
+            if (previous == null) {
+                movies.add(movie);
+            } else {
+                movies.set(movies.indexOf(previous), movie);
+            }
+            return new ChannelSnapshot(movies, moviesById);
+        }
+
+        /**
+         * Returns a new snapshot with a movie replaced in place and, unless {@code existing} is
+         * null, another one of the snapshot swapped for {@code displaced}.
+         */
+        ChannelSnapshot replace(
+                Movie old,
+                Movie replacement,
+                @Nullable Movie existing,
+                @Nullable Movie displaced) {
+            List<Movie> movies = new ArrayList<>(mMovies);
+            LongHashMap<Movie> moviesById = new LongHashMap<>(mMoviesById);
+            movies.set(movies.indexOf(old), replacement);
+            moviesById.remove(old.getId());
+            if (existing != null) {
+                movies.set(movies.indexOf(existing), displaced);
+                moviesById.put(displaced.getId(), displaced);
+            }
+            moviesById.put(replacement.getId(), replacement);
+            return new ChannelSnapshot(movies, moviesById);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        final long mChannelId;
+        final List<Movie> mMovies;
+        @Nullable final List<Movie> mUpdatedMovies;
+
+        PendingWrite(long channelId, List<Movie> movies, @Nullable List<Movie> updatedMovies) {
+            mChannelId = channelId;
+            mMovies = movies;
+            mUpdatedMovies = updatedMovies;
+        }
+    }
+}
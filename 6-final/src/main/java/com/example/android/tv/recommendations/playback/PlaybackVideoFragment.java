@@ -22,6 +22,7 @@ import android.support.v17.leanback.media.MediaPlayerAdapter;
 import android.support.v17.leanback.media.PlaybackGlue;
 import android.support.v17.leanback.widget.PlaybackControlsRow;
 import android.util.Log;
+import com.example.android.tv.recommendations.model.MockDatabase;
 import com.example.android.tv.recommendations.model.Movie;
 
 /** Handles video playback with media controls. */
@@ -89,6 +90,8 @@ public class PlaybackVideoFragment extends VideoFragment {
         if (mMediaPlayerGlue != null) {
             mMediaPlayerGlue.pause();
         }
+        // Persist the watch next changes made while playing.
+        MockDatabase.requestFlush(getActivity());
         super.onPause();
     }
 
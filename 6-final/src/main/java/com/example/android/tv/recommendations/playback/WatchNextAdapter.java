@@ -24,6 +24,7 @@ import android.util.Log;
 
 import com.example.android.tv.recommendations.model.MockDatabase;
 import com.example.android.tv.recommendations.model.Movie;
+import com.example.android.tv.recommendations.model.MovieView;
 import com.example.android.tv.recommendations.util.AppLinkHelper;
 
 /** Adds, updates, and removes the currently playing {@link Movie} from the "Watch Next" channel. */
@@ -35,8 +36,9 @@ public class WatchNextAdapter {
             Context context, long channelId, Movie movie, long position, long duration) {
         Log.d(TAG, String.format("Updating the movie (%d) in watch next.", movie.getId()));
 
-        Movie entity = MockDatabase.findMovieById(context, channelId, movie.getId());
-        if (entity == null) {
+        // Only a few fields are needed, the view decodes them without copying the whole movie.
+        MovieView entity = new MovieView();
+        if (!MockDatabase.findMovieById(context, channelId, movie.getId(), entity)) {
             Log.e(
                     TAG,
                     String.format(
@@ -54,9 +56,18 @@ public class WatchNextAdapter {
                             .insert(
                                     TvContractCompat.WatchNextPrograms.CONTENT_URI,
                                     program.toContentValues());
-            long watchNextId = ContentUris.parseId(watchNextProgramUri);
-            entity.setWatchNextId(watchNextId);
-            MockDatabase.saveMovie(context, channelId, entity);
+            final long watchNextId = ContentUris.parseId(watchNextProgramUri);
+            // Only touch the watch next id, a concurrent sync may have changed the program id.
+            MockDatabase.updateMovie(
+                    context,
+                    channelId,
+                    entity.getId(),
+                    new MockDatabase.MovieMutator() {
+                        @Override
+                        public void mutate(Movie movie) {
+                            movie.setWatchNextId(watchNextId);
+                        }
+                    });
 
             Log.d(TAG, "Watch Next program added: " + watchNextId);
         } else {
@@ -75,7 +86,7 @@ public class WatchNextAdapter {
 
     @NonNull
     private WatchNextProgram createWatchNextProgram(
-            long channelId, Movie movie, long position, long duration) {
+            long channelId, MovieView movie, long position, long duration) {
         // TODO: step 13 convert movie
         Uri posterArtUri = Uri.parse(movie.getCardImageUrl());
         Uri intentUri = AppLinkHelper.buildPlaybackUri(channelId, movie.getId(), position);
@@ -94,8 +105,13 @@ public class WatchNextAdapter {
     }
 
     public void removeFromWatchNext(Context context, long channelId, long movieId) {
-        Movie movie = MockDatabase.findMovieById(context, channelId, movieId);
-        if (movie == null || movie.getWatchNextId() < 1L) {
+        // Most movies are not in watch next, check the id before reading the whole movie.
+        MovieView movie = new MovieView();
+        final long watchNextId =
+                MockDatabase.findMovieById(context, channelId, movieId, movie)
+                        ? movie.getWatchNextId()
+                        : -1L;
+        if (watchNextId < 1L) {
             Log.d(TAG, "No program to remove from watch next.");
             return;
         }
@@ -103,14 +119,22 @@ public class WatchNextAdapter {
         // TODO: step 15 remove program
         int rows =
                 context.getContentResolver()
-                        .delete(
-                                TvContractCompat.buildWatchNextProgramUri(movie.getWatchNextId()),
-                                null,
-                                null);
+                        .delete(TvContractCompat.buildWatchNextProgramUri(watchNextId), null, null);
         Log.d(TAG, String.format("Deleted %d programs(s) from watch next", rows));
 
-        // Sync our records with the system; remove reference to watch next program.
-        movie.setWatchNextId(-1);
-        MockDatabase.saveMovie(context, channelId, movie);
+        // Sync our records with the system; remove reference to watch next program unless the
+        // movie has been added to watch next again in the meantime.
+        MockDatabase.updateMovie(
+                context,
+                channelId,
+                movieId,
+                new MockDatabase.MovieMutator() {
+                    @Override
+                    public void mutate(Movie movie) {
+                        if (movie.getWatchNextId() == watchNextId) {
+                            movie.setWatchNextId(-1);
+                        }
+                    }
+                });
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.example.android.tv.recommendations.util;
+
+import com.example.android.tv.recommendations.model.Movie;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams a {@link Movie} to and from JSON without reflection.
+ *
+ * <p>The field names match the ones Gson derives reflectively, so records written by either path
+ * can be read by the other.
+ */
+public final class MovieTypeAdapter extends TypeAdapter<Movie> {
+
+    private static final String ID = "id";
+    private static final String TITLE = "title";
+    private static final String DESCRIPTION = "description";
+    private static final String BACKGROUND_IMAGE_URL = "bgImageUrl";
+    private static final String CARD_IMAGE_URL = "cardImageUrl";
+    private static final String VIDEO_URL = "videoUrl";
+    private static final String STUDIO = "studio";
+    private static final String CATEGORY = "category";
+    private static final String PROGRAM_ID = "programId";
+    private static final String WATCH_NEXT_ID = "watchNextId";
+
+    @Override
+    public void write(JsonWriter out, Movie movie) throws IOException {
+        if (movie == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(ID).value(movie.getId());
+        writeString(out, TITLE, movie.getTitle());
+        writeString(out, DESCRIPTION, movie.getDescription());
+        writeString(out, BACKGROUND_IMAGE_URL, movie.getBackgroundImageUrl());
+        writeString(out, CARD_IMAGE_URL, movie.getCardImageUrl());
+        writeString(out, VIDEO_URL, movie.getVideoUrl());
+        writeString(out, STUDIO, movie.getStudio());
+        writeString(out, CATEGORY, movie.getCategory());
+        out.name(PROGRAM_ID).value(movie.getProgramId());
+        out.name(WATCH_NEXT_ID).value(movie.getWatchNextId());
+        out.endObject();
+    }
+
+    @Override
+    public Movie read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Movie movie = new Movie();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case ID:
+                    movie.setId(in.nextLong());
+                    break;
+                case TITLE:
+                    movie.setTitle(in.nextString());
+                    break;
+                case DESCRIPTION:
+                    movie.setDescription(in.nextString());
+                    break;
+                case BACKGROUND_IMAGE_URL:
+                    movie.setBackgroundImageUrl(in.nextString());
+                    break;
+                case CARD_IMAGE_URL:
+                    movie.setCardImageUrl(in.nextString());
+                    break;
+                case VIDEO_URL:
+                    movie.setVideoUrl(in.nextString());
+                    break;
+                case STUDIO:
+                    movie.setStudio(in.nextString());
+                    break;
+                case CATEGORY:
+                    movie.setCategory(in.nextString());
+                    break;
+                case PROGRAM_ID:
+                    movie.setProgramId(in.nextLong());
+                    break;
+                case WATCH_NEXT_ID:
+                    movie.setWatchNextId(in.nextLong());
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return movie;
+    }
+
+    /**
+     * Reads a JSON array of movies one element at a time, so that only the movie last returned has
+     * to be in memory. The array is opened on the first call and closed after its last element.
+     * Errors reading or parsing the JSON are thrown as {@link JsonIOException} or {@link
+     * JsonSyntaxException}.
+     *
+     * @param in positioned at the start of the array.
+     * @return the movies of the array in order.
+     */
+    public Iterator<Movie> readArray(final JsonReader in) {
+        return new Iterator<Movie>() {
+            private boolean mStarted;
+            private boolean mEnded;
+
+            @Override
+            public boolean hasNext() {
+                if (mEnded) {
+                    return false;
+                }
+                try {
+                    if (!mStarted) {
+                        in.beginArray();
+                        mStarted = true;
+                    }
+                    if (in.hasNext()) {
+                        return true;
+                    }
+                    in.endArray();
+                    mEnded = true;
+                    return false;
+                } catch (MalformedJsonException | IllegalStateException e) {
+                    throw new JsonSyntaxException(e);
+                } catch (IOException e) {
+                    throw new JsonIOException(e);
+                }
+            }
+
+            @Override
+            public Movie next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return read(in);
+                } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+                    throw new JsonSyntaxException(e);
+                } catch (IOException e) {
+                    throw new JsonIOException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        // Mirror Gson's default of leaving out null fields.
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+}
@@ -15,24 +15,54 @@
  */
 package com.example.android.tv.recommendations.util;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
 import android.util.Log;
 import com.example.android.tv.recommendations.model.Movie;
 import com.example.android.tv.recommendations.model.Subscription;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Helper class to store {@link Subscription}s and {@link Movie}s in {@link SharedPreferences}.
  *
- * <p>SharedPreferencesHelper provides static methods to set and get these objects.
+ * <p>SharedPreferencesHelper provides static methods to set and get these objects. Each list is
+ * stored as one ordered JSON array under its key and parsed in a single streaming pass.
+ *
+ * <p>Subscriptions live in a small root file. The movies of each channel live in a preferences
+ * file of their own, so reading or saving a channel only loads and rewrites that channel's bytes.
+ * Movies that earlier versions kept in the root file are moved to their channel's file the first
+ * time the channel is read.
+ *
+ * <p>Low-RAM devices store the movies of each channel Deflate compressed instead. A compressed
+ * list is kept compressed in memory by {@link SharedPreferences} and only inflated when its channel
+ * is read. Each value records its own encoding, so either can be read on any device.
  *
  * <p>The methods of this class should not be called on the UI thread. Marshalling an object into
  * JSON can be expensive for large objects.
@@ -46,8 +76,27 @@ public final class SharedPreferencesHelper {
             "com.example.android.tv.recommendations.prefs.SUBSCRIPTIONS";
     private static final String PREFS_SUBSCRIBED_MOVIES_PREFIX =
             "com.example.android.tv.recommendations.prefs.SUBSCRIBED_MOVIES_";
+    private static final String PREFS_FRESH_CURSOR_PREFIX =
+            "com.example.android.tv.recommendations.prefs.FRESH_CURSOR_";
+    private static final String PREFS_SYNTHETIC_GENERATION_PREFIX =
+            "com.example.android.tv.recommendations.prefs.SYNTHETIC_GENERATION_";
+    private static final String PREFS_LEGACY_CATALOG_IMPORTED_KEY =
+            "com.example.android.tv.recommendations.prefs.LEGACY_CATALOG_IMPORTED";
+
+    /** Names of the channel files written so far, so they can be found without listing them. */
+    private static final String PREFS_CHANNEL_FILES_KEY =
+            "com.example.android.tv.recommendations.prefs.CHANNEL_FILES";
+
+    private static final String PREFS_CHANNEL_PREFIX = PREFS_NAME + ".channel_";
+
+    /** Marks a Base64 encoded, Deflate compressed JSON array. Plain arrays start with '['. */
+    private static final String DEFLATE_PREFIX = "deflate:";
 
-    private static final Gson mGson = new Gson();
+    private static final Gson mGson =
+            new GsonBuilder()
+                    .registerTypeAdapter(Movie.class, new MovieTypeAdapter())
+                    .registerTypeAdapter(Subscription.class, new SubscriptionTypeAdapter())
+                    .create();
 
     /**
      * Reads the {@link List<Subscription>} from {@link SharedPreferences}.
@@ -56,7 +105,7 @@ public final class SharedPreferencesHelper {
      * @return a list of subscriptions or an empty list if none exist.
      */
     public static List<Subscription> readSubscriptions(Context context) {
-        return getList(context, Subscription.class, PREFS_SUBSCRIPTIONS_KEY);
+        return getList(getRootPreferences(context), Subscription.class, PREFS_SUBSCRIPTIONS_KEY);
     }
 
     /**
@@ -66,7 +115,85 @@ public final class SharedPreferencesHelper {
      * @param subscriptions to be stored in shared preferences.
      */
     public static void storeSubscriptions(Context context, List<Subscription> subscriptions) {
-        setList(context, subscriptions, PREFS_SUBSCRIPTIONS_KEY);
+        setList(
+                getRootPreferences(context),
+                subscriptions.iterator(),
+                PREFS_SUBSCRIPTIONS_KEY,
+                false);
+    }
+
+    /**
+     * Reads where the next fresh list of a subscription's channel starts in the catalog.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @param subscriptionName of the subscription.
+     * @return the index of the first movie of the next fresh list, or 0 if none was stored.
+     */
+    public static int readFreshCursor(Context context, String subscriptionName) {
+        return getRootPreferences(context).getInt(PREFS_FRESH_CURSOR_PREFIX + subscriptionName, 0);
+    }
+
+    /**
+     * Stores where the next fresh list of a subscription's channel starts in the catalog.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @param subscriptionName of the subscription.
+     * @param cursor index of the first movie of the next fresh list.
+     */
+    public static void storeFreshCursor(Context context, String subscriptionName, int cursor) {
+        getRootPreferences(context)
+                .edit()
+                .putInt(PREFS_FRESH_CURSOR_PREFIX + subscriptionName, cursor)
+                .apply();
+    }
+
+    /**
+     * Reads the generation of the synthetic catalog that a subscription's channel was last given.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @param subscriptionName of the subscription.
+     * @return the generation of the last fresh list, or 0 if none was stored.
+     */
+    public static long readSyntheticGeneration(Context context, String subscriptionName) {
+        return getRootPreferences(context)
+                .getLong(PREFS_SYNTHETIC_GENERATION_PREFIX + subscriptionName, 0);
+    }
+
+    /**
+     * Stores the generation of the synthetic catalog that a subscription's channel was last given.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @param subscriptionName of the subscription.
+     * @param generation of the last fresh list.
+     */
+    public static void storeSyntheticGeneration(
+            Context context, String subscriptionName, long generation) {
+        getRootPreferences(context)
+                .edit()
+                .putLong(PREFS_SYNTHETIC_GENERATION_PREFIX + subscriptionName, generation)
+                .apply();
+    }
+
+    /**
+     * Reads whether the catalog of earlier versions of the app has been imported.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @return true once {@link #storeLegacyCatalogImported} was called.
+     */
+    public static boolean readLegacyCatalogImported(Context context) {
+        return getRootPreferences(context).getBoolean(PREFS_LEGACY_CATALOG_IMPORTED_KEY, false);
+    }
+
+    /**
+     * Stores that the catalog of earlier versions of the app has been imported.
+     *
+     * @param context used for getting an instance of shared preferences.
+     */
+    public static void storeLegacyCatalogImported(Context context) {
+        getRootPreferences(context)
+                .edit()
+                .putBoolean(PREFS_LEGACY_CATALOG_IMPORTED_KEY, true)
+                .apply();
     }
 
     /**
@@ -77,7 +204,12 @@ public final class SharedPreferencesHelper {
      * @return a list of movies or an empty list if none exist.
      */
     public static List<Movie> readMovies(Context context, long channelId) {
-        return getList(context, Movie.class, PREFS_SUBSCRIBED_MOVIES_PREFIX + channelId);
+        String key = PREFS_SUBSCRIBED_MOVIES_PREFIX + channelId;
+        SharedPreferences channelPreferences = getChannelPreferences(context, channelId);
+        if (!channelPreferences.contains(key)) {
+            moveFromRoot(context, channelId, channelPreferences, key);
+        }
+        return getList(channelPreferences, Movie.class, key);
     }
 
     /**
@@ -88,58 +220,299 @@ public final class SharedPreferencesHelper {
      * @param movies to be stored.
      */
     public static void storeMovies(Context context, long channelId, List<Movie> movies) {
-        setList(context, movies, PREFS_SUBSCRIBED_MOVIES_PREFIX + channelId);
+        storeMovies(context, channelId, movies.iterator());
+    }
+
+    /**
+     * Overrides the movies stored in {@link SharedPreferences} for the associated channel id with
+     * the movies of a stream. The movies are serialized as they are read, only the resulting JSON
+     * string is held in memory.
+     *
+     * @param context used for getting an instance of shared preferences.
+     * @param channelId of the channel that the movies are associated with.
+     * @param movies to be stored.
+     */
+    public static void storeMovies(Context context, long channelId, Iterator<Movie> movies) {
+        storeMovies(context, channelId, movies, isLowRamDevice(context));
+    }
+
+    /**
+     * Overrides the movies stored for a channel with the movies of a stream, in the given encoding.
+     *
+     * @param compress whether the movies should be Deflate compressed.
+     */
+    @VisibleForTesting
+    static void storeMovies(
+            Context context, long channelId, Iterator<Movie> movies, boolean compress) {
+        String key = PREFS_SUBSCRIBED_MOVIES_PREFIX + channelId;
+        SharedPreferences channelPreferences = getChannelPreferences(context, channelId);
+        if (!movies.hasNext()) {
+            // Drop the key, an empty array would stay in the file after the channel is gone.
+            channelPreferences.edit().remove(key).apply();
+        } else {
+            addChannelFile(context, channelId);
+            setList(channelPreferences, movies, key, compress);
+        }
+        // A legacy copy in the root file is outdated now.
+        SharedPreferences rootPreferences = getRootPreferences(context);
+        if (rootPreferences.contains(key)) {
+            rootPreferences.edit().remove(key).apply();
+        }
     }
 
     /**
-     * Retrieves a set of Strings from {@link SharedPreferences} and returns as a List.
+     * Removes the movies stored in {@link SharedPreferences} for every channel that is not in
+     * {@code channelIds}, deleting their files and any legacy entries in the root file.
      *
      * @param context used for getting an instance of shared preferences.
-     * @param clazz the class that the strings will be unmarshalled into.
-     * @param key the key in shared preferences to access the string set.
+     * @param channelIds of the channels whose movies are kept.
+     * @return the approximate number of bytes the removed files and entries took up.
+     */
+    public static long deleteMoviesExcept(Context context, Set<Long> channelIds) {
+        long bytes = 0;
+        SharedPreferences rootPreferences = getRootPreferences(context);
+        SharedPreferences.Editor editor = rootPreferences.edit();
+        synchronized (SharedPreferencesHelper.class) {
+            Set<String> names = getChannelFiles(rootPreferences);
+            Set<String> remainingNames = new HashSet<>(names);
+            for (String name : names) {
+                long channelId;
+                try {
+                    channelId = Long.parseLong(name.substring(PREFS_CHANNEL_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (channelIds.contains(channelId)) {
+                    continue;
+                }
+                long size = estimateSize(context.getSharedPreferences(name, Context.MODE_PRIVATE));
+                if (context.deleteSharedPreferences(name)) {
+                    remainingNames.remove(name);
+                    bytes += size;
+                } else {
+                    Log.e(TAG, "Could not delete " + name);
+                }
+            }
+            editor.putStringSet(PREFS_CHANNEL_FILES_KEY, remainingNames);
+        }
+
+        for (Map.Entry<String, ?> entry : rootPreferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(PREFS_SUBSCRIBED_MOVIES_PREFIX)) {
+                continue;
+            }
+            long channelId;
+            try {
+                channelId = Long.parseLong(key.substring(PREFS_SUBSCRIBED_MOVIES_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (!channelIds.contains(channelId)) {
+                editor.remove(key);
+                bytes += estimateSize(entry);
+            }
+        }
+        editor.apply();
+        return bytes;
+    }
+
+    private static SharedPreferences getRootPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static SharedPreferences getChannelPreferences(Context context, long channelId) {
+        return context.getSharedPreferences(
+                PREFS_CHANNEL_PREFIX + channelId, Context.MODE_PRIVATE);
+    }
+
+    private static Set<String> getChannelFiles(SharedPreferences rootPreferences) {
+        return rootPreferences.getStringSet(
+                PREFS_CHANNEL_FILES_KEY, Collections.<String>emptySet());
+    }
+
+    /**
+     * Records the file of a channel in the root file before the channel file is first written, so
+     * {@link #deleteMoviesExcept} finds every channel file without listing the directory.
+     */
+    private static synchronized void addChannelFile(Context context, long channelId) {
+        SharedPreferences rootPreferences = getRootPreferences(context);
+        Set<String> names = getChannelFiles(rootPreferences);
+        String name = PREFS_CHANNEL_PREFIX + channelId;
+        if (names.contains(name)) {
+            return;
+        }
+        // The set returned by SharedPreferences must not be modified.
+        Set<String> updatedNames = new HashSet<>(names);
+        updatedNames.add(name);
+        // Once per channel, committed so the name is on disk before the channel file is.
+        rootPreferences.edit().putStringSet(PREFS_CHANNEL_FILES_KEY, updatedNames).commit();
+    }
+
+    /** Estimates the bytes that the entries of a preferences file take up. */
+    private static long estimateSize(SharedPreferences sharedPreferences) {
+        long bytes = 0;
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            bytes += estimateSize(entry);
+        }
+        return bytes;
+    }
+
+    private static long estimateSize(Map.Entry<String, ?> entry) {
+        return entry.getKey().length() + String.valueOf(entry.getValue()).length();
+    }
+
+    /** Moves the movies of a channel that an earlier version stored in the root file. */
+    private static void moveFromRoot(
+            Context context, long channelId, SharedPreferences channelPreferences, String key) {
+        SharedPreferences rootPreferences = getRootPreferences(context);
+        if (!rootPreferences.contains(key)) {
+            return;
+        }
+        Object value = rootPreferences.getAll().get(key);
+        SharedPreferences.Editor editor = channelPreferences.edit();
+        if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Set) {
+            @SuppressWarnings("unchecked")
+            Set<String> stringSet = (Set<String>) value;
+            editor.putStringSet(key, stringSet);
+        }
+        // Make sure the channel file has the movies before they are removed from the root file.
+        addChannelFile(context, channelId);
+        if (editor.commit()) {
+            rootPreferences.edit().remove(key).apply();
+            Log.d(TAG, "Moved " + key + " to its channel file");
+        }
+    }
+
+    /**
+     * Retrieves a list that was stored as a single JSON array from {@link SharedPreferences}.
+     *
+     * <p>Compressed arrays are inflated while they are parsed. Lists stored by earlier versions as
+     * a set of JSON strings, one per object, are read once and rewritten as an array.
+     *
+     * @param sharedPreferences that hold the array.
+     * @param clazz the class that the array elements will be unmarshalled into.
+     * @param key the key in shared preferences to access the array.
      * @param <T> the type of object that will be in the returned list, should be the same as the
      *     clazz that was supplied.
      * @return a list of <T> objects that were stored in shared preferences or an empty list if no
      *     objects exists.
      */
-    private static <T> List<T> getList(Context context, Class<T> clazz, String key) {
-        SharedPreferences sharedPreferences =
-                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        Set<String> stringSet = sharedPreferences.getStringSet(key, new HashSet<String>());
-        if (stringSet.isEmpty()) {
+    private static <T> List<T> getList(
+            SharedPreferences sharedPreferences, Class<T> clazz, String key) {
+        String json;
+        try {
+            json = sharedPreferences.getString(key, null);
+        } catch (ClassCastException e) {
+            return migrateStringSet(sharedPreferences, clazz, key);
+        }
+        if (json == null) {
             // Favoring mutability of the list over Collections.emptyList().
             return new ArrayList<>();
         }
-        List<T> list = new ArrayList<>(stringSet.size());
-        try {
-            for (String contactString : stringSet) {
-                list.add(mGson.fromJson(contactString, clazz));
+        TypeAdapter<T> adapter = mGson.getAdapter(clazz);
+        List<T> list = new ArrayList<>();
+        Reader source =
+                json.startsWith(DEFLATE_PREFIX) ? openCompressed(json) : new StringReader(json);
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                list.add(adapter.read(reader));
             }
-        } catch (JsonSyntaxException e) {
+            reader.endArray();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
             Log.e(TAG, "Could not parse json.", e);
-            return Collections.emptyList();
+            return new ArrayList<>();
         }
         return list;
     }
 
     /**
-     * Saves a list of Strings into {@link SharedPreferences}.
+     * Saves a list into {@link SharedPreferences} as a single JSON array, preserving its order.
      *
-     * @param context used for getting an instance of shared preferences.
-     * @param list of <T> object that need to be persisted.
-     * @param key the key in shared preferences which the string set will be stored.
+     * @param sharedPreferences to store the array in.
+     * @param items of <T> object that need to be persisted.
+     * @param key the key in shared preferences which the array will be stored.
+     * @param compress whether the array should be Deflate compressed.
      * @param <T> type the of object we will be marshalling and persisting.
      */
-    private static <T> void setList(Context context, List<T> list, String key) {
-        SharedPreferences sharedPreferences =
-                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
+    private static <T> void setList(
+            SharedPreferences sharedPreferences, Iterator<T> items, String key, boolean compress) {
+        String json = compress ? toCompressedJsonArray(items) : toJsonArray(items);
+        sharedPreferences.edit().putString(key, json).apply();
+    }
+
+    /** Trades the CPU time of inflating a channel on every read for the memory it would take. */
+    private static boolean isLowRamDevice(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice();
+    }
+
+    @VisibleForTesting
+    static <T> String toJsonArray(Iterator<T> items) {
+        StringWriter json = new StringWriter();
+        try {
+            writeJsonArray(items, json);
+        } catch (IOException e) {
+            // StringWriter does not throw.
+            throw new IllegalStateException(e);
+        }
+        return json.toString();
+    }
 
-        Set<String> strings = new LinkedHashSet<>(list.size());
-        for (T item : list) {
-            strings.add(mGson.toJson(item));
+    @VisibleForTesting
+    static <T> String toCompressedJsonArray(Iterator<T> items) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeJsonArray(
+                    items,
+                    new OutputStreamWriter(
+                            new DeflaterOutputStream(bytes), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw.
+            throw new IllegalStateException(e);
         }
-        editor.putStringSet(key, strings);
-        editor.apply();
+        return DEFLATE_PREFIX + Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+    }
+
+    /** Writes the items as a JSON array and closes the writer. */
+    @SuppressWarnings("unchecked")
+    private static <T> void writeJsonArray(Iterator<T> items, Writer out) throws IOException {
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginArray();
+            while (items.hasNext()) {
+                T item = items.next();
+                TypeAdapter<T> adapter = (TypeAdapter<T>) mGson.getAdapter(item.getClass());
+                adapter.write(writer, item);
+            }
+            writer.endArray();
+        }
+    }
+
+    @VisibleForTesting
+    static Reader openCompressed(String value) {
+        byte[] bytes = Base64.decode(value.substring(DEFLATE_PREFIX.length()), Base64.NO_WRAP);
+        return new InputStreamReader(
+                new InflaterInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8);
+    }
+
+    /** Reads a list stored as one JSON string per object and rewrites it as a JSON array. */
+    private static <T> List<T> migrateStringSet(
+            SharedPreferences sharedPreferences, Class<T> clazz, String key) {
+        Set<String> stringSet = sharedPreferences.getStringSet(key, new HashSet<String>());
+        List<T> list = new ArrayList<>(stringSet.size());
+        try {
+            for (String contactString : stringSet) {
+                list.add(mGson.fromJson(contactString, clazz));
+            }
+        } catch (JsonSyntaxException e) {
+            Log.e(TAG, "Could not parse json.", e);
+            return new ArrayList<>();
+        }
+        sharedPreferences.edit().putString(key, toJsonArray(list.iterator())).apply();
+        Log.d(TAG, "Migrated " + list.size() + " objects stored under " + key);
+        return list;
     }
 }
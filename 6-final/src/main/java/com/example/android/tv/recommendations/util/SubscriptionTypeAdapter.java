@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.example.android.tv.recommendations.util;
+
+import com.example.android.tv.recommendations.model.Subscription;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * Streams a {@link Subscription} to and from JSON without reflection.
+ *
+ * <p>The field names match the ones Gson derives reflectively, so records written by either path
+ * can be read by the other.
+ */
+public final class SubscriptionTypeAdapter extends TypeAdapter<Subscription> {
+
+    private static final String CHANNEL_ID = "channelId";
+    private static final String NAME = "name";
+    private static final String DESCRIPTION = "description";
+    private static final String APP_LINK_INTENT_URI = "appLinkIntentUri";
+    private static final String CHANNEL_LOGO = "channelLogo";
+
+    @Override
+    public void write(JsonWriter out, Subscription subscription) throws IOException {
+        if (subscription == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(CHANNEL_ID).value(subscription.getChannelId());
+        if (subscription.getName() != null) {
+            out.name(NAME).value(subscription.getName());
+        }
+        if (subscription.getDescription() != null) {
+            out.name(DESCRIPTION).value(subscription.getDescription());
+        }
+        if (subscription.getAppLinkIntentUri() != null) {
+            out.name(APP_LINK_INTENT_URI).value(subscription.getAppLinkIntentUri());
+        }
+        out.name(CHANNEL_LOGO).value(subscription.getChannelLogo());
+        out.endObject();
+    }
+
+    @Override
+    public Subscription read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Subscription subscription = new Subscription();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case CHANNEL_ID:
+                    subscription.setChannelId(in.nextLong());
+                    break;
+                case NAME:
+                    subscription.setName(in.nextString());
+                    break;
+                case DESCRIPTION:
+                    subscription.setDescription(in.nextString());
+                    break;
+                case APP_LINK_INTENT_URI:
+                    subscription.setAppLinkIntentUri(in.nextString());
+                    break;
+                case CHANNEL_LOGO:
+                    subscription.setChannelLogo(in.nextInt());
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return subscription;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times the runs of an operation and prints the latency distribution and throughput.
+ *
+ * <p>Benchmarks are tests that only run when the {@code benchmark} system property is true, which
+ * the build sets when run with {@code -Pbenchmark}. Numbers from the JVM are only good for
+ * comparing implementations with each other, not for predicting the time on a device.
+ */
+public final class Benchmark {
+
+    private final String mName;
+    private long[] mNanos = new long[16];
+    private int mRuns;
+    private long mStart;
+
+    /** @param name printed with the results. */
+    public Benchmark(String name) {
+        mName = name;
+    }
+
+    /** Skips the calling test unless benchmarks were asked for. */
+    public static void assumeEnabled() {
+        assumeTrue("Benchmarks run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    /** Starts timing a run. */
+    public void start() {
+        mStart = System.nanoTime();
+    }
+
+    /** Stops timing the run that was started last. */
+    public void stop() {
+        long nanos = System.nanoTime() - mStart;
+        if (mRuns == mNanos.length) {
+            mNanos = Arrays.copyOf(mNanos, mRuns * 2);
+        }
+        mNanos[mRuns++] = nanos;
+    }
+
+    /**
+     * Prints the mean, median, 99th percentile and maximum time of a run.
+     *
+     * @param itemsPerRun that each run processed, for the throughput, or 0 to leave it out.
+     */
+    public void report(long itemsPerRun) {
+        long[] nanos = Arrays.copyOf(mNanos, mRuns);
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long run : nanos) {
+            total += run;
+        }
+        StringBuilder line =
+                new StringBuilder(
+                        String.format(
+                                Locale.US,
+                                "%s: %d run(s), mean %s, p50 %s, p99 %s, max %s",
+                                mName,
+                                mRuns,
+                                format(total / mRuns),
+                                format(nanos[mRuns / 2]),
+                                format(nanos[Math.min(mRuns - 1, mRuns * 99 / 100)]),
+                                format(nanos[mRuns - 1])));
+        if (itemsPerRun > 0) {
+            line.append(
+                    String.format(
+                            Locale.US, ", %.0f items/s", itemsPerRun * mRuns * 1e9 / total));
+        }
+        System.out.println(line);
+    }
+
+    /** Forgets the peak usage of the heap so far, see {@link #getPeakHeapBytes()}. */
+    public static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of each heap pool since {@link #resetPeakHeap()}. The pools
+     * peak at different times, so this overestimates the peak of the heap as a whole.
+     */
+    public static long getPeakHeapBytes() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 10000000L) {
+            return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+        }
+        return String.format(Locale.US, "%.1f us", nanos / 1e3);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.support.annotation.Nullable;
+import com.example.android.tv.recommendations.util.MovieTypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves a catalog over HTTP/1.1 on the loopback interface, standing in for a catalog server in
+ * tests of {@link HttpCatalogSource}.
+ *
+ * <p>The catalog comes with the validators it is given, and conditional requests that match them
+ * get a 304 without a body. Bodies are gzip encoded when the client accepts it, and connections are
+ * kept open between requests. The server counts the requests, the connections and the bytes it
+ * sends, so tests can tell what each fetch cost. Once stopped, connections are refused, the way
+ * they are when the device is offline.
+ */
+final class CatalogServer {
+
+    private static final String PATH = "/catalog.json";
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+    private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    private byte[] mBody = new byte[0];
+    private byte[] mCompressedBody = new byte[0];
+    @Nullable private String mETag;
+    @Nullable private String mLastModified;
+
+    private boolean mStopped;
+    private int mRequests;
+    private int mNotModifiedResponses;
+    private int mConnections;
+    private long mBytesSent;
+    private Map<String, String> mLastRequestHeaders = Collections.emptyMap();
+
+    /** Starts a server on a free port of the loopback interface. */
+    CatalogServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread =
+                new Thread("CatalogServer") {
+                    @Override
+                    public void run() {
+                        accept();
+                    }
+                };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    /** Returns the URL that the catalog is served at. */
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + PATH;
+    }
+
+    /**
+     * Replaces the catalog that is served.
+     *
+     * @param movies written as a JSON array in the format of {@link MovieTypeAdapter}.
+     * @param eTag sent with the catalog and matched against {@code If-None-Match}, or null.
+     * @param lastModified sent with the catalog and compared with {@code If-Modified-Since}, an
+     *     HTTP date, or null.
+     */
+    synchronized void setCatalog(
+            List<Movie> movies, @Nullable String eTag, @Nullable String lastModified)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonWriter writer =
+                new JsonWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+            MovieTypeAdapter adapter = new MovieTypeAdapter();
+            writer.beginArray();
+            for (Movie movie : movies) {
+                adapter.write(writer, movie);
+            }
+            writer.endArray();
+        }
+        ByteArrayOutputStream compressedBody = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressedBody)) {
+            body.writeTo(out);
+        }
+        mBody = body.toByteArray();
+        mCompressedBody = compressedBody.toByteArray();
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /** Returns the size of the catalog before it is encoded. */
+    synchronized int getBodyLength() {
+        return mBody.length;
+    }
+
+    /** Returns how many requests were answered. */
+    synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    /** Returns how many requests were answered with a 304. */
+    synchronized int getNotModifiedCount() {
+        return mNotModifiedResponses;
+    }
+
+    /** Returns how many connections were accepted. */
+    synchronized int getConnectionCount() {
+        return mConnections;
+    }
+
+    /** Returns the bytes of status lines, headers and bodies sent so far. */
+    synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * Returns a header of the last request.
+     *
+     * @param name of the header, in any case.
+     * @return the value, or null if the last request had no such header.
+     */
+    @Nullable
+    synchronized String getLastRequestHeader(String name) {
+        return mLastRequestHeaders.get(name.toLowerCase(Locale.US));
+    }
+
+    /** Closes the listening socket and every open connection, so the next request fails. */
+    void stop() throws IOException {
+        synchronized (this) {
+            mStopped = true;
+        }
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+        try {
+            mAcceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Formats a time as an HTTP date, the format of {@code Last-Modified}. */
+    static String formatHttpDate(long millis) {
+        return newHttpDateFormat().format(new Date(millis));
+    }
+
+    private static SimpleDateFormat newHttpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Stopped.
+                return;
+            }
+            synchronized (this) {
+                ++mConnections;
+            }
+            mSockets.add(socket);
+            Thread thread =
+                    new Thread("CatalogServer connection") {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Answers the requests of a connection until the client or {@link #stop()} closes it. */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(
+                                line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                byte[] response = respond(requestLine, headers);
+                if (response == null) {
+                    return;
+                }
+                out.write(response);
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // Closed by the client or by stop().
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            mSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the response to a request and counts them, or null once stopped, since
+     * a request can still slip in on a connection that {@link #stop()} is about to close.
+     */
+    @Nullable
+    private synchronized byte[] respond(String requestLine, Map<String, String> headers) {
+        if (mStopped) {
+            return null;
+        }
+        ++mRequests;
+        mLastRequestHeaders = headers;
+        String status;
+        StringBuilder responseHeaders = new StringBuilder();
+        byte[] body = new byte[0];
+        if (!requestLine.startsWith("GET " + PATH + " ")) {
+            status = "404 Not Found";
+        } else if (isNotModified(headers)) {
+            ++mNotModifiedResponses;
+            status = "304 Not Modified";
+        } else {
+            status = "200 OK";
+            responseHeaders.append("Content-Type: application/json\r\n");
+            String acceptEncoding = headers.get("accept-encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                responseHeaders.append("Content-Encoding: gzip\r\n");
+                body = mCompressedBody;
+            } else {
+                body = mBody;
+            }
+        }
+        if (mETag != null) {
+            responseHeaders.append("ETag: ").append(mETag).append("\r\n");
+        }
+        if (mLastModified != null) {
+            responseHeaders.append("Last-Modified: ").append(mLastModified).append("\r\n");
+        }
+        byte[] head =
+                ("HTTP/1.1 "
+                                + status
+                                + "\r\n"
+                                + responseHeaders
+                                + "Content-Length: "
+                                + body.length
+                                + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[head.length + body.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(body, 0, response, head.length, body.length);
+        mBytesSent += response.length;
+        return response;
+    }
+
+    /** Validates like a server does, {@code If-None-Match} wins over {@code If-Modified-Since}. */
+    private boolean isNotModified(Map<String, String> headers) {
+        String ifNoneMatch = headers.get("if-none-match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(mETag);
+        }
+        String ifModifiedSince = headers.get("if-modified-since");
+        if (ifModifiedSince == null || mLastModified == null) {
+            return false;
+        }
+        try {
+            SimpleDateFormat format = newHttpDateFormat();
+            return !format.parse(mLastModified).after(format.parse(ifModifiedSince));
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /** Reads a CRLF terminated line of ASCII, or returns null at the end of the stream. */
+    @Nullable
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
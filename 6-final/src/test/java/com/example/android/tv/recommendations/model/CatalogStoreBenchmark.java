@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+import com.example.android.tv.recommendations.Benchmark;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Measures the throughput and latency of each {@link CatalogStore} for channels of each size. */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class CatalogStoreBenchmark {
+
+    private static final int[] SIZES = {10, 1000, 100000};
+
+    private static final long CHANNEL_ID = 1;
+
+    /** Lookups timed per channel. */
+    private static final int LOOKUPS = 1000;
+
+    private final String mName;
+    private final CatalogStores.Factory mFactory;
+    private final int mSize;
+
+    private CatalogStore mStore;
+    private List<Movie> mMovies;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} {2}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (Object[] store : CatalogStores.parameters()) {
+            for (int size : SIZES) {
+                parameters.add(new Object[] {store[0], store[1], size});
+            }
+        }
+        return parameters;
+    }
+
+    public CatalogStoreBenchmark(String name, CatalogStores.Factory factory, int size) {
+        mName = name + " " + size;
+        mFactory = factory;
+        mSize = size;
+    }
+
+    @Before
+    public void setUp() {
+        Benchmark.assumeEnabled();
+        mStore = mFactory.open(RuntimeEnvironment.application);
+        mMovies = CatalogStores.createMovies(0, mSize);
+    }
+
+    @Test
+    public void writeMovies() {
+        Benchmark benchmark = new Benchmark(mName + " writeMovies");
+        for (int run = 0; run < runs(); ++run) {
+            // Alternate with an empty channel, so every run stores the movies from scratch.
+            mStore.writeMovies(CHANNEL_ID, Collections.<Movie>emptyList());
+            benchmark.start();
+            mStore.writeMovies(CHANNEL_ID, mMovies);
+            benchmark.stop();
+        }
+        benchmark.report(mSize);
+    }
+
+    @Test
+    public void readMovies() {
+        mStore.writeMovies(CHANNEL_ID, mMovies);
+        Benchmark movies = new Benchmark(mName + " readMovies");
+        Benchmark ids = new Benchmark(mName + " readMovieIds");
+        for (int run = 0; run < runs(); ++run) {
+            movies.start();
+            int count = mStore.readMovies(CHANNEL_ID).size();
+            movies.stop();
+            assertEquals(mSize, count);
+
+            ids.start();
+            count = mStore.readMovieIds(CHANNEL_ID).size();
+            ids.stop();
+            assertEquals(mSize, count);
+        }
+        movies.report(mSize);
+        ids.report(mSize);
+    }
+
+    @Test
+    public void findMovie() {
+        mStore.writeMovies(CHANNEL_ID, mMovies);
+        Random random = new Random(mSize);
+        MovieView view = new MovieView();
+        Benchmark benchmark = new Benchmark(mName + " findMovie");
+        for (int i = 0; i < LOOKUPS; ++i) {
+            long movieId = mMovies.get(random.nextInt(mSize)).getId();
+            benchmark.start();
+            boolean found = mStore.findMovie(CHANNEL_ID, movieId, view) && view.getTitle() != null;
+            benchmark.stop();
+            assertTrue(found);
+        }
+        benchmark.report(1);
+    }
+
+    /** The way program ids are stored once the programs of a channel are published. */
+    @Test
+    public void updateMovies() {
+        mStore.writeMovies(CHANNEL_ID, mMovies);
+        Random random = new Random(mSize);
+        Benchmark benchmark = new Benchmark(mName + " updateMovies");
+        int updates = mSize >= 100000 ? runs() : runs() * 5;
+        for (int i = 0; i < updates; ++i) {
+            Movie movie = mMovies.get(random.nextInt(mSize));
+            movie.setProgramId(i + 1);
+            benchmark.start();
+            mStore.updateMovies(CHANNEL_ID, Collections.singletonList(movie), mMovies);
+            benchmark.stop();
+        }
+        benchmark.report(1);
+    }
+
+    /**
+     * Repeats small channels for a stable median, and keeps the largest ones affordable.
+     * Robolectric never runs the disk writes of apply(), so each write of the preferences store
+     * stays in memory.
+     */
+    private int runs() {
+        return mSize >= 100000 ? 3 : 20;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Build;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Checks that every {@link CatalogStore} honors the same contract. */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class CatalogStoreTest {
+
+    private static final long CHANNEL_ID = 7;
+    private static final long OTHER_CHANNEL_ID = 8;
+
+    private final String mName;
+    private final CatalogStores.Factory mFactory;
+    private CatalogStore mStore;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return CatalogStores.parameters();
+    }
+
+    public CatalogStoreTest(String name, CatalogStores.Factory factory) {
+        mName = name;
+        mFactory = factory;
+    }
+
+    @Before
+    public void setUp() {
+        mStore = mFactory.open(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void readMovies_emptyStore_returnsEmptyList() {
+        assertTrue(mStore.readMovies(CHANNEL_ID).isEmpty());
+        assertEquals(0, mStore.readMovieIds(CHANNEL_ID).size());
+        assertNull(mStore.findMovie(CHANNEL_ID, 1));
+        assertFalse(mStore.findMovie(CHANNEL_ID, 1, new MovieView()));
+    }
+
+    @Test
+    public void writeMovies_keepsOrderAndFields() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        for (int i = 0; i < movies.size(); ++i) {
+            movies.get(i).setProgramId(100 + i);
+            movies.get(i).setWatchNextId(i % 2 == 0 ? 0 : 200 + i);
+        }
+
+        mStore.writeMovies(CHANNEL_ID, movies);
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void writeMovies_survivesReopening() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        mStore.writeMovies(CHANNEL_ID, movies);
+
+        CatalogStore reopened = mFactory.open(RuntimeEnvironment.application);
+
+        assertMovies(movies, reopened.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void setLegacyCatalogImported_survivesReopeningAndKeepsMovies() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        assertFalse(mStore.isLegacyCatalogImported());
+
+        mStore.setLegacyCatalogImported();
+        CatalogStore reopened = mFactory.open(RuntimeEnvironment.application);
+
+        assertTrue(reopened.isLegacyCatalogImported());
+        assertMovies(movies, reopened.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void writeMovies_emptyList_removesChannel() {
+        mStore.writeMovies(CHANNEL_ID, CatalogStores.createMovies(0, 5));
+
+        mStore.writeMovies(CHANNEL_ID, Collections.<Movie>emptyList());
+
+        assertTrue(mStore.readMovies(CHANNEL_ID).isEmpty());
+    }
+
+    @Test
+    public void writeMovies_repeatedMovie_keepsFirstPosition() {
+        List<Movie> movies = CatalogStores.createMovies(0, 3);
+        Movie repeated = new Movie(movies.get(0));
+        repeated.setProgramId(42);
+        List<Movie> withRepeat = new ArrayList<>(movies);
+        withRepeat.add(repeated);
+
+        mStore.writeMovies(CHANNEL_ID, withRepeat);
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void writeMovies_sharedMovies_keepIdsPerChannel() {
+        List<Movie> first = CatalogStores.createMovies(0, 10);
+        List<Movie> second = CatalogStores.createMovies(1, 10);
+        for (Movie movie : first) {
+            movie.setProgramId(1);
+        }
+        for (Movie movie : second) {
+            movie.setProgramId(2);
+        }
+
+        mStore.writeMovies(CHANNEL_ID, first);
+        mStore.writeMovies(OTHER_CHANNEL_ID, second);
+
+        assertMovies(first, mStore.readMovies(CHANNEL_ID));
+        assertMovies(second, mStore.readMovies(OTHER_CHANNEL_ID));
+    }
+
+    @Test
+    public void readMovieIds_matchesReadMovies() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        for (int i = 0; i < movies.size(); ++i) {
+            movies.get(i).setProgramId(100 + i);
+            movies.get(i).setWatchNextId(300 + i);
+        }
+        mStore.writeMovies(CHANNEL_ID, movies);
+
+        MovieIds ids = mStore.readMovieIds(CHANNEL_ID);
+
+        assertEquals(movies.size(), ids.size());
+        for (int i = 0; i < movies.size(); ++i) {
+            assertEquals(movies.get(i).getId(), ids.getIds()[i]);
+            assertEquals(movies.get(i).getProgramId(), ids.getProgramIds()[i]);
+            assertEquals(movies.get(i).getWatchNextId(), ids.getWatchNextIds()[i]);
+        }
+    }
+
+    @Test
+    public void findMovie_returnsMovieOfChannel() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        Movie expected = movies.get(13);
+
+        Movie movie = mStore.findMovie(CHANNEL_ID, expected.getId());
+        MovieView view = new MovieView();
+        boolean found = mStore.findMovie(CHANNEL_ID, expected.getId(), view);
+
+        assertNotNull(movie);
+        assertMovie(expected, movie);
+        assertTrue(found);
+        assertMovie(expected, view.toMovie());
+        assertNull(mStore.findMovie(OTHER_CHANNEL_ID, expected.getId()));
+    }
+
+    @Test
+    public void importMovies_storesStream() {
+        List<Movie> movies = CatalogStores.createMovies(0, 50);
+
+        mStore.importMovies(CHANNEL_ID, movies.iterator());
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_failingStream_leavesChannelUnchanged() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        final Iterator<Movie> replacement = CatalogStores.createMovies(1, 10).iterator();
+
+        try {
+            mStore.importMovies(
+                    CHANNEL_ID,
+                    new Iterator<Movie>() {
+                        private int mCount;
+
+                        @Override
+                        public boolean hasNext() {
+                            return true;
+                        }
+
+                        @Override
+                        public Movie next() {
+                            if (++mCount > 5) {
+                                throw new UncheckedIOException(new IOException("Offline"));
+                            }
+                            return replacement.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    });
+            fail();
+        } catch (UncheckedIOException expected) {
+            // The stream failure is propagated.
+        }
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_importDuringStream_keepsBoth() {
+        List<Movie> movies = CatalogStores.createMovies(0, 20);
+        final List<Movie> other = CatalogStores.createMovies(1, 20);
+
+        mStore.importMovies(
+                CHANNEL_ID,
+                runAfter(
+                        movies,
+                        10,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                mStore.importMovies(OTHER_CHANNEL_ID, other.iterator());
+                            }
+                        }));
+
+        CatalogStore reopened = mFactory.open(RuntimeEnvironment.application);
+        assertMovies(movies, reopened.readMovies(CHANNEL_ID));
+        assertMovies(other, reopened.readMovies(OTHER_CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_readDuringStream_doesNotWait() {
+        // The other stores hold their lock for the whole import.
+        assumeTrue(MockDatabase.STORE_MAPPED.equals(mName));
+        final List<Movie> other = CatalogStores.createMovies(1, 10);
+        mStore.writeMovies(OTHER_CHANNEL_ID, other);
+        final List<List<Movie>> read = new ArrayList<>();
+
+        mStore.importMovies(
+                CHANNEL_ID,
+                runAfter(
+                        CatalogStores.createMovies(0, 20),
+                        10,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                Thread reader =
+                                        new Thread() {
+                                            @Override
+                                            public void run() {
+                                                read.add(mStore.readMovies(OTHER_CHANNEL_ID));
+                                            }
+                                        };
+                                reader.start();
+                                try {
+                                    reader.join(5000);
+                                } catch (InterruptedException e) {
+                                    throw new AssertionError(e);
+                                }
+                            }
+                        }));
+
+        assertEquals(1, read.size());
+        assertMovies(other, read.get(0));
+    }
+
+    @Test
+    public void updateMovies_changedIds_areStored() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        Movie updated = movies.get(4);
+        updated.setProgramId(99);
+        updated.setWatchNextId(77);
+
+        mStore.updateMovies(CHANNEL_ID, Collections.singletonList(updated), movies);
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+        assertMovies(movies, mFactory.open(RuntimeEnvironment.application).readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void updateMovies_newMovie_isAppended() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies.subList(0, 9));
+
+        mStore.updateMovies(CHANNEL_ID, movies.subList(9, 10), movies);
+
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void deleteOrphanedChannels_keepsListedChannels() {
+        List<Movie> kept = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, kept);
+        mStore.writeMovies(OTHER_CHANNEL_ID, CatalogStores.createMovies(1, 10));
+        mStore.writeMovies(OTHER_CHANNEL_ID + 1, CatalogStores.createMovies(2, 10));
+
+        mStore.deleteOrphanedChannels(new HashSet<>(Arrays.asList(CHANNEL_ID)));
+
+        assertMovies(kept, mStore.readMovies(CHANNEL_ID));
+        assertTrue(mStore.readMovies(OTHER_CHANNEL_ID).isEmpty());
+        assertTrue(mStore.readMovies(OTHER_CHANNEL_ID + 1).isEmpty());
+    }
+
+    @Test
+    public void writeSubscriptions_keepsOrder() {
+        List<Subscription> subscriptions =
+                new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, 3, 0, 0).createSubscriptions();
+        for (int i = 0; i < subscriptions.size(); ++i) {
+            subscriptions.get(i).setChannelId(10 + i);
+        }
+
+        mStore.writeSubscriptions(subscriptions);
+        List<Subscription> read = mStore.readSubscriptions();
+
+        assertEquals(subscriptions.size(), read.size());
+        for (int i = 0; i < subscriptions.size(); ++i) {
+            assertEquals(subscriptions.get(i).getName(), read.get(i).getName());
+            assertEquals(subscriptions.get(i).getChannelId(), read.get(i).getChannelId());
+            assertEquals(subscriptions.get(i).getDescription(), read.get(i).getDescription());
+        }
+    }
+
+    @Test
+    public void writeSubscriptions_repeatedName_keepsLast() {
+        List<Subscription> subscriptions =
+                new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, 2, 0, 0).createSubscriptions();
+        Subscription first = subscriptions.get(0);
+        Subscription repeated =
+                Subscription.createSubscription(
+                        first.getName(),
+                        first.getDescription(),
+                        first.getAppLinkIntentUri(),
+                        first.getChannelLogo());
+        repeated.setChannelId(42);
+        subscriptions.add(repeated);
+
+        mStore.writeSubscriptions(subscriptions);
+
+        Subscription last = null;
+        for (Subscription subscription : mStore.readSubscriptions()) {
+            if (repeated.getName().equals(subscription.getName())) {
+                last = subscription;
+            }
+        }
+        assertNotNull(last);
+        assertEquals(42, last.getChannelId());
+    }
+
+    /** Returns the movies of a list, running an action once {@code count} of them were read. */
+    private static Iterator<Movie> runAfter(
+            final List<Movie> movies, final int count, final Runnable action) {
+        return new Iterator<Movie>() {
+            private int mNext;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < movies.size();
+            }
+
+            @Override
+            public Movie next() {
+                if (mNext == count) {
+                    action.run();
+                }
+                return movies.get(mNext++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    static void assertMovies(List<Movie> expected, List<Movie> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertMovie(expected.get(i), actual.get(i));
+        }
+    }
+
+    static void assertMovie(Movie expected, Movie actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getProgramId(), actual.getProgramId());
+        assertEquals(expected.getWatchNextId(), actual.getWatchNextId());
+        assertTrue(expected + " != " + actual, expected.hasSameContent(actual));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import android.content.Context;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Opens each {@link CatalogStore} over the files of a context and generates movies to store. */
+final class CatalogStores {
+
+    /** Opens a store, the same one every time for the same context. */
+    interface Factory {
+
+        CatalogStore open(Context context);
+    }
+
+    static final Factory MAPPED =
+            new Factory() {
+                @Override
+                public CatalogStore open(Context context) {
+                    File journalDirectory = new File(context.getFilesDir(), "catalog-journal");
+                    if (!journalDirectory.isDirectory() && !journalDirectory.mkdirs()) {
+                        throw new IllegalStateException("Could not create " + journalDirectory);
+                    }
+                    return new MappedMovieStore(
+                            context,
+                            new File(context.getFilesDir(), "catalog.bin"),
+                            journalDirectory);
+                }
+            };
+
+    static final Factory SQLITE =
+            new Factory() {
+                @Override
+                public CatalogStore open(Context context) {
+                    return new SqliteCatalogStore(context);
+                }
+            };
+
+    static final Factory SHARED_PREFERENCES =
+            new Factory() {
+                @Override
+                public CatalogStore open(Context context) {
+                    return new SharedPreferencesCatalogStore(context);
+                }
+            };
+
+    private CatalogStores() {
+        // Do nothing.
+    }
+
+    /** Returns the name and factory of every store, as the parameters of a parameterized test. */
+    static List<Object[]> parameters() {
+        return Arrays.asList(
+                new Object[] {MockDatabase.STORE_MAPPED, MAPPED},
+                new Object[] {MockDatabase.STORE_SQLITE, SQLITE},
+                new Object[] {MockDatabase.STORE_SHARED_PREFERENCES, SHARED_PREFERENCES});
+    }
+
+    /**
+     * Returns the movies of a synthetic channel, the same ones for the same arguments.
+     *
+     * @param channel picks one of a series of channels, neighbouring channels share half their
+     *     movies.
+     * @param count of movies.
+     */
+    static List<Movie> createMovies(int channel, int count) {
+        SyntheticCatalog catalog =
+                new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, channel + 1, count, 0);
+        CatalogIterator movies =
+                new CatalogIterator(
+                        catalog.getCatalogSource("Synthetic " + (channel + 1), 0),
+                        Math.max(1, count));
+        List<Movie> list = new ArrayList<>(count);
+        while (movies.hasNext()) {
+            list.add(movies.next());
+        }
+        return list;
+    }
+}
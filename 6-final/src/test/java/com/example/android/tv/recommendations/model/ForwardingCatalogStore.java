@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/** Forwards every call to another store, for tests to step in on the calls they care about. */
+class ForwardingCatalogStore implements CatalogStore {
+
+    private final CatalogStore mDelegate;
+
+    ForwardingCatalogStore(CatalogStore delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public boolean isLegacyCatalogImported() {
+        return mDelegate.isLegacyCatalogImported();
+    }
+
+    @Override
+    public void setLegacyCatalogImported() {
+        mDelegate.setLegacyCatalogImported();
+    }
+
+    @Override
+    public List<Subscription> readSubscriptions() {
+        return mDelegate.readSubscriptions();
+    }
+
+    @Override
+    public void writeSubscriptions(List<Subscription> subscriptions) {
+        mDelegate.writeSubscriptions(subscriptions);
+    }
+
+    @Override
+    public List<Movie> readMovies(long channelId) {
+        return mDelegate.readMovies(channelId);
+    }
+
+    @Override
+    public MovieIds readMovieIds(long channelId) {
+        return mDelegate.readMovieIds(channelId);
+    }
+
+    @Override
+    public Movie findMovie(long channelId, long movieId) {
+        return mDelegate.findMovie(channelId, movieId);
+    }
+
+    @Override
+    public boolean findMovie(long channelId, long movieId, MovieView view) {
+        return mDelegate.findMovie(channelId, movieId, view);
+    }
+
+    @Override
+    public void writeMovies(long channelId, List<Movie> movies) {
+        mDelegate.writeMovies(channelId, movies);
+    }
+
+    @Override
+    public void importMovies(long channelId, Iterator<Movie> movies) {
+        mDelegate.importMovies(channelId, movies);
+    }
+
+    @Override
+    public void updateMovies(long channelId, List<Movie> updatedMovies, List<Movie> allMovies) {
+        mDelegate.updateMovies(channelId, updatedMovies, allMovies);
+    }
+
+    @Override
+    public long deleteOrphanedChannels(Set<Long> channelIds) {
+        return mDelegate.deleteOrphanedChannels(channelIds);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Build;
+import com.example.android.tv.recommendations.Benchmark;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures the latency and bytes transferred of fetching the first page of a catalog from a {@link
+ * CatalogServer}, when the catalog changed and when it is revalidated.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class HttpCatalogBenchmark {
+
+    private static final int MOVIES = 10000;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 10;
+
+    private CatalogServer mServer;
+    private List<Movie> mMovies;
+
+    @Before
+    public void setUp() throws IOException {
+        Benchmark.assumeEnabled();
+        mServer = new CatalogServer();
+        mMovies = CatalogStores.createMovies(0, MOVIES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    /** Every fetch gets a new ETag, so the whole catalog is transferred and cached. */
+    @Test
+    public void fetch_changed() throws IOException {
+        run("fetch " + MOVIES + " movies, changed", true);
+        assertEquals(0, mServer.getNotModifiedCount());
+    }
+
+    /** Every fetch but the first is answered with a 304 and pages over the cached copy. */
+    @Test
+    public void fetch_notModified() throws IOException {
+        mServer.setCatalog(mMovies, "\"0\"", null);
+        fetchFirstPage();
+        run("fetch " + MOVIES + " movies, not modified", false);
+        assertEquals(WARM_UP_RUNS + RUNS, mServer.getNotModifiedCount());
+    }
+
+    private void run(String name, boolean changed) throws IOException {
+        Benchmark benchmark = new Benchmark(name);
+        long bytesSent = 0;
+        for (int run = 0; run < WARM_UP_RUNS + RUNS; ++run) {
+            boolean timed = run >= WARM_UP_RUNS;
+            if (changed) {
+                mServer.setCatalog(mMovies, "\"" + (run + 1) + "\"", null);
+            }
+            long before = mServer.getBytesSent();
+            if (timed) {
+                benchmark.start();
+            }
+            fetchFirstPage();
+            if (timed) {
+                benchmark.stop();
+                bytesSent += mServer.getBytesSent() - before;
+            }
+        }
+        benchmark.report(1);
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%s: %d bytes per fetch, catalog is %d bytes",
+                        name,
+                        bytesSent / RUNS,
+                        mServer.getBodyLength()));
+    }
+
+    private void fetchFirstPage() throws IOException {
+        try (CatalogSource source =
+                HttpCatalogSource.create(RuntimeEnvironment.application, mServer.getUrl())) {
+            source.fetchPage(null, CatalogSource.DEFAULT_PAGE_SIZE);
+        }
+    }
+}
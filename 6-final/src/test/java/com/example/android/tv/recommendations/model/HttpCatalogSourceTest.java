@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static com.example.android.tv.recommendations.model.CatalogStoreTest.assertMovies;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Build;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks what {@link HttpCatalogSource} fetches from a {@link CatalogServer}, and what it serves
+ * from its cache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class HttpCatalogSourceTest {
+
+    private static final int MOVIES = 1000;
+    private static final String ETAG = "\"1\"";
+    private static final String CHANGED_ETAG = "\"2\"";
+    private static final String LAST_MODIFIED = CatalogServer.formatHttpDate(1500000000000L);
+
+    /** Most bytes of a response without a body, its status line and headers. */
+    private static final long MAX_HEAD_BYTES = 512;
+
+    private CatalogServer mServer;
+    private List<Movie> mMovies;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new CatalogServer();
+        mMovies = CatalogStores.createMovies(0, MOVIES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.stop();
+    }
+
+    @Test
+    public void fetch_noCache_transfersCompressedCatalog() throws IOException {
+        mServer.setCatalog(mMovies, ETAG, LAST_MODIFIED);
+
+        assertMovies(mMovies, fetchAll());
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, mServer.getNotModifiedCount());
+        assertEquals("gzip", mServer.getLastRequestHeader("Accept-Encoding"));
+        assertNull(mServer.getLastRequestHeader("If-None-Match"));
+        assertNull(mServer.getLastRequestHeader("If-Modified-Since"));
+        assertTrue(mServer.getBytesSent() > MAX_HEAD_BYTES);
+        assertTrue(mServer.getBytesSent() < mServer.getBodyLength() / 2);
+    }
+
+    @Test
+    public void fetch_unchangedETag_revalidatesWithoutBody() throws IOException {
+        mServer.setCatalog(mMovies, ETAG, null);
+        fetchAll();
+        long bytesSent = mServer.getBytesSent();
+
+        assertMovies(mMovies, fetchAll());
+
+        assertEquals(ETAG, mServer.getLastRequestHeader("If-None-Match"));
+        assertNull(mServer.getLastRequestHeader("If-Modified-Since"));
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertTrue(mServer.getBytesSent() - bytesSent < MAX_HEAD_BYTES);
+    }
+
+    @Test
+    public void fetch_unchangedLastModified_revalidatesWithoutBody() throws IOException {
+        mServer.setCatalog(mMovies, null, LAST_MODIFIED);
+        fetchAll();
+        long bytesSent = mServer.getBytesSent();
+
+        assertMovies(mMovies, fetchAll());
+
+        assertNull(mServer.getLastRequestHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, mServer.getLastRequestHeader("If-Modified-Since"));
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertTrue(mServer.getBytesSent() - bytesSent < MAX_HEAD_BYTES);
+    }
+
+    @Test
+    public void fetch_changedCatalog_transfersNewCatalog() throws IOException {
+        mServer.setCatalog(mMovies, ETAG, LAST_MODIFIED);
+        fetchAll();
+        List<Movie> changed = CatalogStores.createMovies(1, MOVIES);
+        mServer.setCatalog(changed, CHANGED_ETAG, LAST_MODIFIED);
+        long bytesSent = mServer.getBytesSent();
+
+        assertMovies(changed, fetchAll());
+
+        assertEquals(ETAG, mServer.getLastRequestHeader("If-None-Match"));
+        assertEquals(0, mServer.getNotModifiedCount());
+        assertTrue(mServer.getBytesSent() - bytesSent > MAX_HEAD_BYTES);
+
+        // The new validators are cached along with the new body.
+        fetchAll();
+        assertEquals(CHANGED_ETAG, mServer.getLastRequestHeader("If-None-Match"));
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    @Test
+    public void fetch_keepsConnectionOpen() throws IOException {
+        mServer.setCatalog(mMovies, ETAG, LAST_MODIFIED);
+
+        fetchAll();
+        fetchAll();
+        fetchAll();
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void fetch_offline_servesStaleCopy() throws IOException {
+        mServer.setCatalog(mMovies, ETAG, LAST_MODIFIED);
+        fetchAll();
+        mServer.stop();
+
+        assertMovies(mMovies, fetchAll());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetch_offlineWithoutCache_fails() throws IOException {
+        mServer.stop();
+
+        try {
+            fetchAll();
+            fail();
+        } catch (IOException expected) {
+            // Nothing to serve.
+        }
+    }
+
+    /** Fetches every page with a new source, the way each sync does. */
+    private List<Movie> fetchAll() throws IOException {
+        List<Movie> movies = new ArrayList<>();
+        try (CatalogSource source =
+                HttpCatalogSource.create(RuntimeEnvironment.application, mServer.getUrl())) {
+            String cursor = null;
+            do {
+                CatalogSource.Page page = source.fetchPage(cursor, CatalogSource.DEFAULT_PAGE_SIZE);
+                movies.addAll(page.getMovies());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        }
+        return movies;
+    }
+}
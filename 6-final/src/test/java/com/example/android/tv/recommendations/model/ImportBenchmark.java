@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Build;
+import com.example.android.tv.recommendations.Benchmark;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures the time and peak heap of storing a large catalog through the write-behind cache, as a
+ * stream with {@link WriteBehindMovieCache#importMovies} and as a list with {@link
+ * WriteBehindMovieCache#writeMovies}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class ImportBenchmark {
+
+    private static final int MOVIES = 100000;
+    private static final int RUNS = 3;
+    private static final long CHANNEL_ID = 1;
+
+    private final String mName;
+    private final CatalogStores.Factory mFactory;
+
+    private CatalogStore mStore;
+    private WriteBehindMovieCache mCache;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return CatalogStores.parameters();
+    }
+
+    public ImportBenchmark(String name, CatalogStores.Factory factory) {
+        mName = name;
+        mFactory = factory;
+    }
+
+    @Before
+    public void setUp() {
+        Benchmark.assumeEnabled();
+        mStore = mFactory.open(RuntimeEnvironment.application);
+        mCache = new WriteBehindMovieCache(mStore);
+    }
+
+    @After
+    public void tearDown() {
+        if (mCache != null) {
+            mCache.close();
+        }
+    }
+
+    /** Only a page of the catalog is in memory at a time. */
+    @Test
+    public void importMovies() {
+        Benchmark benchmark = new Benchmark(mName + " importMovies " + MOVIES);
+        long peak = 0;
+        for (int run = 0; run < RUNS; ++run) {
+            long baseline = resetPeakHeap();
+            benchmark.start();
+            mCache.importMovies(CHANNEL_ID, createCatalog(run));
+            benchmark.stop();
+            peak = Math.max(peak, Benchmark.getPeakHeapBytes() - baseline);
+        }
+        benchmark.report(MOVIES);
+        reportPeakHeap("importMovies", peak);
+        assertEquals(MOVIES, mStore.readMovieIds(CHANNEL_ID).size());
+    }
+
+    /** The whole catalog is built as a list first, the way it was stored before streaming. */
+    @Test
+    public void writeMovies() {
+        Benchmark benchmark = new Benchmark(mName + " writeMovies " + MOVIES);
+        long peak = 0;
+        for (int run = 0; run < RUNS; ++run) {
+            long baseline = resetPeakHeap();
+            benchmark.start();
+            List<Movie> movies = new ArrayList<>();
+            for (CatalogIterator catalog = createCatalog(run); catalog.hasNext(); ) {
+                movies.add(catalog.next());
+            }
+            mCache.writeMovies(CHANNEL_ID, movies);
+            mCache.flush();
+            benchmark.stop();
+            peak = Math.max(peak, Benchmark.getPeakHeapBytes() - baseline);
+        }
+        benchmark.report(MOVIES);
+        reportPeakHeap("writeMovies", peak);
+        assertEquals(MOVIES, mStore.readMovieIds(CHANNEL_ID).size());
+    }
+
+    /** Each run gets a different generation, so the store cannot reuse stored content. */
+    private static CatalogIterator createCatalog(int run) {
+        SyntheticCatalog catalog =
+                new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, 1, MOVIES, 1.0);
+        return new CatalogIterator(
+                catalog.getCatalogSource("Synthetic 1", run), CatalogSource.DEFAULT_PAGE_SIZE);
+    }
+
+    /** Returns the heap in use after collecting garbage, the base of the next peak. */
+    private static long resetPeakHeap() {
+        Benchmark.resetPeakHeap();
+        return Benchmark.getPeakHeapBytes();
+    }
+
+    private void reportPeakHeap(String operation, long bytes) {
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%s %s %d: peak heap %.1f MB above the baseline",
+                        mName,
+                        operation,
+                        MOVIES,
+                        bytes / 1e6));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.os.Build;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Checks that {@link LocalCatalogSource} reports every malformed catalog as an IOException. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class LocalCatalogSourceTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile =
+                new File(
+                        RuntimeEnvironment.application.getFilesDir(), LocalCatalogSource.FILE_NAME);
+    }
+
+    @Test
+    public void fetchPage_readsMovies() throws IOException {
+        write("[{\"id\": 1, \"title\": \"One\"}, {\"id\": 2, \"title\": \"Two\"}]");
+
+        try (LocalCatalogSource source = new LocalCatalogSource(mFile)) {
+            CatalogSource.Page page = source.fetchPage(null, 1);
+            assertEquals(1, page.getMovies().get(0).getId());
+            page = source.fetchPage(page.getNextCursor(), 1);
+            assertEquals("Two", page.getMovies().get(0).getTitle());
+        }
+    }
+
+    @Test
+    public void fetchPage_malformedNumber_throwsIOException() throws IOException {
+        write("[{\"id\": \"one\"}]");
+
+        assertFetchFails(null);
+    }
+
+    @Test
+    public void fetchPage_notAnArray_throwsIOException() throws IOException {
+        write("{\"id\": 1}");
+
+        assertFetchFails(null);
+    }
+
+    @Test
+    public void fetchPage_invalidCursor_throwsIOException() throws IOException {
+        write("[]");
+
+        assertFetchFails("next");
+    }
+
+    private void assertFetchFails(String cursor) {
+        try (LocalCatalogSource source = new LocalCatalogSource(mFile)) {
+            source.fetchPage(cursor, CatalogSource.DEFAULT_PAGE_SIZE);
+            fail();
+        } catch (IOException expected) {
+            // Surfaced the way a failed read is.
+        }
+    }
+
+    private void write(String json) throws IOException {
+        try (OutputStream out = new FileOutputStream(mFile)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
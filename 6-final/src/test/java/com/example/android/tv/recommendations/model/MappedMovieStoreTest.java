@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static com.example.android.tv.recommendations.model.CatalogStoreTest.assertMovies;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Build;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks the parts of {@link MappedMovieStore} that the {@link CatalogStore} contract does not
+ * cover: the journals of changed ids and the dictionary encoding of the content segment.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class MappedMovieStoreTest {
+
+    private static final long CHANNEL_ID = 7;
+    private static final long OTHER_CHANNEL_ID = 8;
+
+    /** Size of the journal header and of each record, as written by {@link MovieJournal}. */
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    private static final int JOURNAL_RECORD_SIZE = 24;
+
+    private Context mContext;
+    private MappedMovieStore mStore;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mStore = open();
+    }
+
+    @Test
+    public void updateMovies_changedIds_areJournaledAndReplayed() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        long catalogLength = getCatalogFile().length();
+
+        movies.get(3).setProgramId(42);
+        mStore.updateMovies(CHANNEL_ID, movies.subList(3, 4), movies);
+
+        assertEquals(catalogLength, getCatalogFile().length());
+        assertEquals(JOURNAL_HEADER_SIZE + JOURNAL_RECORD_SIZE, getJournalFile().length());
+        assertMovies(movies, open().readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void reopen_tornJournalRecord_isDropped() throws IOException {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        movies.get(3).setProgramId(42);
+        mStore.updateMovies(CHANNEL_ID, movies.subList(3, 4), movies);
+        // An append that died after writing part of a record.
+        try (FileOutputStream out = new FileOutputStream(getJournalFile(), true)) {
+            out.write(new byte[JOURNAL_RECORD_SIZE / 2]);
+        }
+
+        MappedMovieStore reopened = open();
+        assertMovies(movies, reopened.readMovies(CHANNEL_ID));
+        assertEquals(JOURNAL_HEADER_SIZE + JOURNAL_RECORD_SIZE, getJournalFile().length());
+
+        // Later records line up behind the last whole one.
+        movies.get(5).setWatchNextId(77);
+        reopened.updateMovies(CHANNEL_ID, movies.subList(5, 6), movies);
+        assertMovies(movies, open().readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void reopen_journalOfOlderSegment_isDiscarded() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+        Movie updated = new Movie(movies.get(3));
+        updated.setProgramId(42);
+        mStore.updateMovies(CHANNEL_ID, Collections.singletonList(updated), movies);
+        File journal = getJournalFile();
+        File saved = new File(journal.getPath() + ".saved");
+        assertTrue(journal.renameTo(saved));
+
+        // Rewriting the channel folds the journal in and starts a new segment generation.
+        mStore.writeMovies(CHANNEL_ID, movies);
+        assertTrue(saved.renameTo(journal));
+
+        assertMovies(movies, open().readMovies(CHANNEL_ID));
+        assertEquals(0, journal.length());
+    }
+
+    @Test
+    public void updateMovies_pastThreshold_compactsJournal() throws InterruptedException {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(CHANNEL_ID, movies);
+
+        for (int i = 0; i < MappedMovieStore.COMPACTION_THRESHOLD; ++i) {
+            Movie movie = movies.get(i % movies.size());
+            movie.setProgramId(1000 + i);
+            mStore.updateMovies(CHANNEL_ID, Collections.singletonList(movie), movies);
+        }
+        mStore.awaitCompactions();
+
+        assertFalse(getJournalFile().exists());
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+        assertMovies(movies, open().readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void writeMovies_unusualStrings_roundTrip() {
+        String prefix = "https://example.com/videos/";
+        List<Movie> movies = new ArrayList<>();
+        movies.add(createMovie(1, prefix + "a.mp4", "Title", null));
+        movies.add(createMovie(2, prefix + "b.mp4", "Title", ""));
+        movies.add(createMovie(3, prefix, "", "Café 日本 🎬"));
+        movies.add(createMovie(4, "a.mp4", null, prefix + "a.mp4"));
+        movies.add(createMovie(5, null, "Title/", "/"));
+
+        mStore.writeMovies(CHANNEL_ID, movies);
+        mStore.importMovies(OTHER_CHANNEL_ID, movies.iterator());
+
+        MappedMovieStore reopened = open();
+        assertMovies(movies, reopened.readMovies(CHANNEL_ID));
+        assertMovies(movies, reopened.readMovies(OTHER_CHANNEL_ID));
+        for (Movie movie : movies) {
+            CatalogStoreTest.assertMovie(
+                    movie, reopened.findMovie(OTHER_CHANNEL_ID, movie.getId()));
+        }
+    }
+
+    @Test
+    public void importMovies_repeatedStrings_shareDictionaryEntries() {
+        List<Movie> movies = CatalogStores.createMovies(0, 1000);
+        long stringBytes = 0;
+        for (Movie movie : movies) {
+            for (String value :
+                    Arrays.asList(
+                            movie.getTitle(),
+                            movie.getDescription(),
+                            movie.getStudio(),
+                            movie.getCategory(),
+                            movie.getVideoUrl(),
+                            movie.getCardImageUrl(),
+                            movie.getBackgroundImageUrl())) {
+                if (value != null) {
+                    stringBytes += value.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        }
+
+        mStore.importMovies(CHANNEL_ID, movies.iterator());
+
+        // Ids, indexes and membership records included, well below the strings alone.
+        assertTrue(getCatalogFile().length() < stringBytes * 3 / 4);
+        assertMovies(movies, open().readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_dictionaryGrows_keepsEarlierRecords() {
+        List<Movie> first = CatalogStores.createMovies(0, 100);
+        List<Movie> second = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            second.add(
+                    createMovie(
+                            100000 + i,
+                            "https://other.example.com/clips/" + i + ".mp4",
+                            "Clip " + (i % 10),
+                            "Shared description"));
+        }
+        mStore.importMovies(CHANNEL_ID, first.iterator());
+
+        mStore.importMovies(OTHER_CHANNEL_ID, second.iterator());
+
+        MappedMovieStore reopened = open();
+        assertMovies(first, reopened.readMovies(CHANNEL_ID));
+        assertMovies(second, reopened.readMovies(OTHER_CHANNEL_ID));
+
+        // Dropping a channel encodes the content that is left from scratch.
+        reopened.deleteOrphanedChannels(new HashSet<>(Arrays.asList(OTHER_CHANNEL_ID)));
+        assertTrue(open().readMovies(CHANNEL_ID).isEmpty());
+        assertMovies(second, open().readMovies(OTHER_CHANNEL_ID));
+    }
+
+    private MappedMovieStore open() {
+        return (MappedMovieStore) CatalogStores.MAPPED.open(mContext);
+    }
+
+    private File getCatalogFile() {
+        return new File(mContext.getFilesDir(), "catalog.bin");
+    }
+
+    private File getJournalFile() {
+        return new File(
+                new File(mContext.getFilesDir(), "catalog-journal"),
+                CHANNEL_ID + MovieJournal.FILE_SUFFIX);
+    }
+
+    private static Movie createMovie(long id, String videoUrl, String title, String description) {
+        Movie movie = new Movie();
+        movie.setId(id);
+        movie.setVideoUrl(videoUrl);
+        movie.setTitle(title);
+        movie.setDescription(description);
+        movie.setCardImageUrl(videoUrl == null ? null : videoUrl + ".jpg");
+        return movie;
+    }
+}
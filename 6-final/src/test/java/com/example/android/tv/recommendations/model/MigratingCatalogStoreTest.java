@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static com.example.android.tv.recommendations.model.CatalogStoreTest.assertMovies;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Build;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that {@link MigratingCatalogStore} moves a catalog seeded in the legacy {@link
+ * SharedPreferencesCatalogStore} into each new store, one channel at a time.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class MigratingCatalogStoreTest {
+
+    private static final int CHANNELS = 3;
+    private static final int MOVIES = 10;
+
+    private final CatalogStores.Factory mFactory;
+    private Context mContext;
+    private CatalogStore mLegacyStore;
+    private List<List<Movie>> mLegacyMovies;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(
+                new Object[] {MockDatabase.STORE_MAPPED, CatalogStores.MAPPED},
+                new Object[] {MockDatabase.STORE_SQLITE, CatalogStores.SQLITE});
+    }
+
+    public MigratingCatalogStoreTest(String name, CatalogStores.Factory factory) {
+        mFactory = factory;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mLegacyStore = CatalogStores.SHARED_PREFERENCES.open(mContext);
+        List<Subscription> subscriptions = new ArrayList<>();
+        mLegacyMovies = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; ++i) {
+            Subscription subscription = Subscription.createSubscription("Channel " + i, "", "", 0);
+            subscription.setChannelId(channelId(i));
+            subscriptions.add(subscription);
+            List<Movie> movies = CatalogStores.createMovies(i, MOVIES);
+            mLegacyStore.writeMovies(channelId(i), movies);
+            mLegacyMovies.add(movies);
+        }
+        mLegacyStore.writeSubscriptions(subscriptions);
+    }
+
+    @Test
+    public void open_importsSubscriptionsOnly() {
+        MigratingCatalogStore store = open();
+
+        assertTrue(store.isLegacyCatalogImported());
+        assertEquals(CHANNELS, store.readSubscriptions().size());
+        assertEquals(CHANNELS * MOVIES, store.countUnmigratedMovies());
+    }
+
+    @Test
+    public void readMovies_migratesChannelOnFirstAccess() {
+        MigratingCatalogStore store = open();
+
+        for (int i = 0; i < CHANNELS; ++i) {
+            assertMovies(mLegacyMovies.get(i), store.readMovies(channelId(i)));
+            assertEquals((CHANNELS - i - 1) * MOVIES, store.countUnmigratedMovies());
+            assertTrue(mLegacyStore.readMovies(channelId(i)).isEmpty());
+        }
+    }
+
+    @Test
+    public void reopen_continuesMigration() {
+        MigratingCatalogStore store = open();
+        store.readMovieIds(channelId(0));
+
+        store = open();
+
+        assertEquals((CHANNELS - 1) * MOVIES, store.countUnmigratedMovies());
+        assertMovies(mLegacyMovies.get(0), store.readMovies(channelId(0)));
+        assertMovies(mLegacyMovies.get(1), store.readMovies(channelId(1)));
+        assertEquals((CHANNELS - 2) * MOVIES, store.countUnmigratedMovies());
+    }
+
+    @Test
+    public void writeMovies_beforeFirstAccess_dropsLegacyMovies() {
+        MigratingCatalogStore store = open();
+        List<Movie> movies = CatalogStores.createMovies(CHANNELS, MOVIES);
+
+        store.writeMovies(channelId(0), movies);
+
+        assertMovies(movies, store.readMovies(channelId(0)));
+        assertEquals((CHANNELS - 1) * MOVIES, store.countUnmigratedMovies());
+        assertTrue(mLegacyStore.readMovies(channelId(0)).isEmpty());
+    }
+
+    @Test
+    public void deleteOrphanedChannels_dropsUnmigratedChannels() {
+        MigratingCatalogStore store = open();
+        store.readMovies(channelId(1));
+
+        store.deleteOrphanedChannels(new HashSet<>(Arrays.asList(channelId(0))));
+
+        assertMovies(mLegacyMovies.get(0), store.readMovies(channelId(0)));
+        assertTrue(store.readMovies(channelId(1)).isEmpty());
+        assertTrue(store.readMovies(channelId(2)).isEmpty());
+        assertTrue(mLegacyStore.readMovies(channelId(2)).isEmpty());
+    }
+
+    private MigratingCatalogStore open() {
+        return new MigratingCatalogStore(mFactory.open(mContext), mLegacyStore);
+    }
+
+    private static long channelId(int channel) {
+        return 100 + channel;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static com.example.android.tv.recommendations.model.CatalogStoreTest.assertMovies;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Build;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Checks that {@link MockDatabase} buffers movie writes and hands them to its store. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class MockDatabaseTest {
+
+    private static final long CHANNEL_ID = 3;
+
+    private Context mContext;
+    private CatalogStore mStore;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mStore = CatalogStores.MAPPED.open(mContext);
+        MockDatabase.setCatalogStore(mStore);
+    }
+
+    @Test
+    public void saveMovies_isWrittenOnFlush() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, movies);
+
+        assertMovies(movies, MockDatabase.getMovies(mContext, CHANNEL_ID));
+        assertTrue(mStore.readMovies(CHANNEL_ID).isEmpty());
+        MockDatabase.flush(mContext);
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void updateMovie_changesOnlyThatMovie() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, movies);
+        long movieId = movies.get(2).getId();
+
+        Movie updated =
+                MockDatabase.updateMovie(
+                        mContext,
+                        CHANNEL_ID,
+                        movieId,
+                        new MockDatabase.MovieMutator() {
+                            @Override
+                            public void mutate(Movie movie) {
+                                movie.setProgramId(55);
+                            }
+                        });
+        MockDatabase.flush(mContext);
+
+        assertNotNull(updated);
+        assertEquals(55, updated.getProgramId());
+        movies.get(2).setProgramId(55);
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void updateMovie_missingMovie_returnsNull() {
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, CatalogStores.createMovies(0, 3));
+
+        assertNull(
+                MockDatabase.updateMovie(
+                        mContext,
+                        CHANNEL_ID,
+                        -1,
+                        new MockDatabase.MovieMutator() {
+                            @Override
+                            public void mutate(Movie movie) {
+                                movie.setProgramId(1);
+                            }
+                        }));
+    }
+
+    @Test
+    public void replaceMovie_newMovie_takesPositionAndProgram() {
+        List<Movie> movies = createMoviesWithPrograms(5);
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, movies);
+        Movie fresh = new Movie(movies.get(0));
+        fresh.setId(12345);
+        fresh.setTitle("Fresh");
+        fresh.setProgramId(0);
+        fresh.setWatchNextId(0);
+
+        Movie stored =
+                MockDatabase.replaceMovie(mContext, CHANNEL_ID, movies.get(1).getId(), fresh);
+        MockDatabase.flush(mContext);
+
+        assertNotNull(stored);
+        fresh.setProgramId(movies.get(1).getProgramId());
+        movies.set(1, fresh);
+        assertMovies(movies, MockDatabase.getMovies(mContext, CHANNEL_ID));
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void replaceMovie_movieInChannel_swapsPositions() {
+        List<Movie> movies = createMoviesWithPrograms(5);
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, movies);
+        Movie first = new Movie(movies.get(0));
+        Movie fourth = new Movie(movies.get(3));
+        Movie fresh = new Movie(fourth);
+        fresh.setProgramId(0);
+        fresh.setWatchNextId(0);
+
+        MockDatabase.replaceMovie(mContext, CHANNEL_ID, first.getId(), fresh);
+        MockDatabase.flush(mContext);
+
+        // Program ids stay at their position, watch next ids move with their movie.
+        fourth.setProgramId(movies.get(0).getProgramId());
+        first.setProgramId(movies.get(3).getProgramId());
+        movies.set(0, fourth);
+        movies.set(3, first);
+        assertMovies(movies, MockDatabase.getMovies(mContext, CHANNEL_ID));
+        assertMovies(movies, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void replaceMovie_missingMovie_returnsNull() {
+        List<Movie> movies = createMoviesWithPrograms(3);
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, movies);
+
+        assertNull(MockDatabase.replaceMovie(mContext, CHANNEL_ID, -1, movies.get(0)));
+        assertMovies(movies, MockDatabase.getMovies(mContext, CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_replacesPendingWrites() {
+        MockDatabase.saveMovies(mContext, CHANNEL_ID, CatalogStores.createMovies(0, 10));
+        List<Movie> imported = CatalogStores.createMovies(1, 20);
+
+        MockDatabase.importMovies(mContext, CHANNEL_ID, imported.iterator());
+        MockDatabase.flush(mContext);
+
+        assertMovies(imported, MockDatabase.getMovies(mContext, CHANNEL_ID));
+        assertMovies(imported, mStore.readMovies(CHANNEL_ID));
+    }
+
+    @Test
+    public void findSubscription_changedCopy_leavesSavedSubscription() {
+        Subscription subscription = Subscription.createSubscription("Channel", "", "", 0);
+        subscription.setChannelId(CHANNEL_ID);
+        MockDatabase.saveSubscription(mContext, subscription);
+
+        subscription.setChannelId(CHANNEL_ID + 1);
+        MockDatabase.findSubscriptionByName(mContext, "Channel").setChannelId(CHANNEL_ID + 2);
+        MockDatabase.getSubscriptions(mContext).get(0).setName("Renamed");
+
+        Subscription saved = MockDatabase.findSubscriptionByChannelId(mContext, CHANNEL_ID);
+        assertNotNull(saved);
+        assertEquals("Channel", saved.getName());
+        assertNull(MockDatabase.findSubscriptionByChannelId(mContext, CHANNEL_ID + 2));
+        assertNull(MockDatabase.findSubscriptionByName(mContext, "Renamed"));
+    }
+
+    private static List<Movie> createMoviesWithPrograms(int count) {
+        List<Movie> movies = CatalogStores.createMovies(0, count);
+        for (int i = 0; i < movies.size(); ++i) {
+            movies.get(i).setProgramId(10 + i);
+            movies.get(i).setWatchNextId(20 + i);
+        }
+        return movies;
+    }
+}
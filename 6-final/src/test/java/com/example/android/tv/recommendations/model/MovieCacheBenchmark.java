@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static org.junit.Assert.assertNotNull;
+
+import android.os.Build;
+import com.example.android.tv.recommendations.Benchmark;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Measures the throughput of {@link WriteBehindMovieCache} with writers on several threads. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class MovieCacheBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    /** Movies per channel, each write copies the channel's list. */
+    private static final int MOVIES = 1000;
+
+    private static final int WRITES_PER_THREAD = 2000;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    private WriteBehindMovieCache mCache;
+    private List<Movie> mMovies;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        Benchmark.assumeEnabled();
+        mCache =
+                new WriteBehindMovieCache(
+                        CatalogStores.MAPPED.open(RuntimeEnvironment.application));
+        mMovies = CatalogStores.createMovies(0, MOVIES);
+        mExecutor = Executors.newFixedThreadPool(THREADS[THREADS.length - 1]);
+    }
+
+    @After
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    /** Each thread writes a channel of its own, so writers only meet on the snapshot map. */
+    @Test
+    public void replaceMovie_ownChannels() throws Exception {
+        for (int threads : THREADS) {
+            run("replaceMovie " + threads + " thread(s), own channels", threads, false);
+        }
+    }
+
+    /** Every thread writes the same channel, so writers take turns on its lock. */
+    @Test
+    public void replaceMovie_sharedChannel() throws Exception {
+        for (int threads : THREADS) {
+            run("replaceMovie " + threads + " thread(s), shared channel", threads, true);
+        }
+    }
+
+    private void run(String name, int threads, boolean shared) throws Exception {
+        for (int thread = 0; thread < threads; ++thread) {
+            mCache.writeMovies(channelId(thread, shared), mMovies);
+        }
+        Benchmark benchmark = new Benchmark(name);
+        for (int run = 0; run < WARM_UP_RUNS + RUNS; ++run) {
+            boolean timed = run >= WARM_UP_RUNS;
+            List<Future<Void>> writers = new ArrayList<>(threads);
+            if (timed) {
+                benchmark.start();
+            }
+            for (int thread = 0; thread < threads; ++thread) {
+                writers.add(mExecutor.submit(new Writer(channelId(thread, shared), thread)));
+            }
+            for (Future<Void> writer : writers) {
+                try {
+                    writer.get();
+                } catch (ExecutionException e) {
+                    throw (Exception) e.getCause();
+                }
+            }
+            if (timed) {
+                benchmark.stop();
+            }
+        }
+        benchmark.report((long) threads * WRITES_PER_THREAD);
+    }
+
+    private static long channelId(int thread, boolean shared) {
+        // Consecutive ids map to different lock stripes.
+        return shared ? 1 : 1 + thread;
+    }
+
+    /** Swaps movies of a channel back and forth, the way a sync rotates a channel's programs. */
+    private final class Writer implements Callable<Void> {
+
+        private final long mChannelId;
+        private final int mOffset;
+
+        Writer(long channelId, int offset) {
+            mChannelId = channelId;
+            mOffset = offset;
+        }
+
+        @Override
+        public Void call() {
+            // Swaps keep every movie in the channel, so each replacement finds its old movie.
+            for (int i = 0; i < WRITES_PER_THREAD; ++i) {
+                int position = (mOffset + i) % MOVIES;
+                long oldId = mMovies.get(position).getId();
+                Movie fresh = mMovies.get((position + 1) % MOVIES);
+                assertNotNull(mCache.replaceMovie(mChannelId, oldId, fresh));
+            }
+            return null;
+        }
+    }
+}
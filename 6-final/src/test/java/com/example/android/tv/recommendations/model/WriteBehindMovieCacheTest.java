@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.example.android.tv.recommendations.model;
+
+import static com.example.android.tv.recommendations.model.CatalogStoreTest.assertMovies;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Build;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Checks how {@link WriteBehindMovieCache} hands pending writes to its store. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class WriteBehindMovieCacheTest {
+
+    private static final long KEPT_CHANNEL_ID = 1;
+    private static final long ORPHAN_CHANNEL_ID = 2;
+
+    private CatalogStore mStore;
+    private WriteBehindMovieCache mCache;
+
+    @Before
+    public void setUp() {
+        mStore = CatalogStores.MAPPED.open(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        if (mCache != null) {
+            mCache.close();
+        }
+    }
+
+    @Test
+    public void deleteOrphanedChannels_writeDuringFlush_isKept() {
+        final List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mCache =
+                new WriteBehindMovieCache(
+                        new ForwardingCatalogStore(mStore) {
+                            private boolean mWritten;
+
+                            @Override
+                            public void writeMovies(long channelId, List<Movie> written) {
+                                super.writeMovies(channelId, written);
+                                if (channelId == ORPHAN_CHANNEL_ID && !mWritten) {
+                                    // Lands after the list of live channels was read.
+                                    mWritten = true;
+                                    Movie movie = new Movie(movies.get(0));
+                                    movie.setProgramId(99);
+                                    mCache.writeMovie(ORPHAN_CHANNEL_ID, movie);
+                                }
+                            }
+                        });
+        mCache.writeMovies(KEPT_CHANNEL_ID, movies);
+        mCache.writeMovies(ORPHAN_CHANNEL_ID, movies);
+
+        mCache.deleteOrphanedChannels(
+                new HashSet<>(Collections.singleton(KEPT_CHANNEL_ID)),
+                mCache.getWriteGeneration());
+        mCache.flush();
+
+        // The channel may belong to a subscription saved after the list was read.
+        List<Movie> written = new ArrayList<>(movies);
+        written.set(0, new Movie(movies.get(0)));
+        written.get(0).setProgramId(99);
+        assertMovies(movies, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(written, mStore.readMovies(ORPHAN_CHANNEL_ID));
+        assertMovies(written, mCache.readMovies(ORPHAN_CHANNEL_ID));
+    }
+
+    @Test
+    public void deleteOrphanedChannels_writtenBeforeGeneration_isDropped() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mCache = new WriteBehindMovieCache(mStore);
+        mCache.writeMovies(ORPHAN_CHANNEL_ID, movies);
+        long generation = mCache.getWriteGeneration();
+        mCache.writeMovies(KEPT_CHANNEL_ID, movies);
+
+        mCache.deleteOrphanedChannels(Collections.<Long>emptySet(), generation);
+
+        assertMovies(movies, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(movies, mCache.readMovies(KEPT_CHANNEL_ID));
+        assertTrue(mStore.readMovies(ORPHAN_CHANNEL_ID).isEmpty());
+        assertTrue(mCache.readMovies(ORPHAN_CHANNEL_ID).isEmpty());
+    }
+
+    @Test
+    public void deleteOrphanedChannels_dropsOrphansOfStoreOnly() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(ORPHAN_CHANNEL_ID, CatalogStores.createMovies(1, 10));
+        mCache = new WriteBehindMovieCache(mStore);
+        mCache.writeMovies(KEPT_CHANNEL_ID, movies);
+
+        mCache.deleteOrphanedChannels(
+                new HashSet<>(Collections.singleton(KEPT_CHANNEL_ID)),
+                mCache.getWriteGeneration());
+
+        assertMovies(movies, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertTrue(mStore.readMovies(ORPHAN_CHANNEL_ID).isEmpty());
+    }
+
+    @Test
+    public void flush_failingStore_keepsChannelsDirty() {
+        List<Movie> kept = CatalogStores.createMovies(0, 10);
+        List<Movie> other = CatalogStores.createMovies(1, 10);
+        final boolean[] failing = {true};
+        mCache =
+                new WriteBehindMovieCache(
+                        new ForwardingCatalogStore(mStore) {
+                            @Override
+                            public void writeMovies(long channelId, List<Movie> written) {
+                                if (failing[0]) {
+                                    throw new UncheckedIOException(new IOException("Disk full"));
+                                }
+                                super.writeMovies(channelId, written);
+                            }
+                        });
+        mCache.writeMovies(KEPT_CHANNEL_ID, kept);
+        mCache.writeMovies(ORPHAN_CHANNEL_ID, other);
+
+        // The failure is logged, not thrown, and neither channel is written.
+        mCache.flush();
+        assertTrue(mStore.readMovies(KEPT_CHANNEL_ID).isEmpty());
+        assertTrue(mStore.readMovies(ORPHAN_CHANNEL_ID).isEmpty());
+        assertMovies(kept, mCache.readMovies(KEPT_CHANNEL_ID));
+
+        failing[0] = false;
+        mCache.flush();
+
+        assertMovies(kept, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(other, mStore.readMovies(ORPHAN_CHANNEL_ID));
+    }
+
+    @Test
+    public void flush_failingUpdate_rewritesChannel() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(KEPT_CHANNEL_ID, movies);
+        final boolean[] failing = {true};
+        mCache =
+                new WriteBehindMovieCache(
+                        new ForwardingCatalogStore(mStore) {
+                            @Override
+                            public void updateMovies(
+                                    long channelId, List<Movie> updated, List<Movie> all) {
+                                if (failing[0]) {
+                                    throw new UncheckedIOException(new IOException("Disk full"));
+                                }
+                                super.updateMovies(channelId, updated, all);
+                            }
+                        });
+        Movie updated = new Movie(movies.get(3));
+        updated.setProgramId(42);
+        mCache.writeMovie(KEPT_CHANNEL_ID, updated);
+
+        mCache.flush();
+        failing[0] = false;
+        mCache.flush();
+
+        movies.set(3, updated);
+        assertMovies(movies, mStore.readMovies(KEPT_CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_failingStore_keepsPendingWrites() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mStore.writeMovies(KEPT_CHANNEL_ID, movies);
+        mCache =
+                new WriteBehindMovieCache(
+                        new ForwardingCatalogStore(mStore) {
+                            @Override
+                            public void importMovies(long channelId, Iterator<Movie> imported) {
+                                throw new UncheckedIOException(new IOException("Disk full"));
+                            }
+                        });
+        Movie updated = new Movie(movies.get(3));
+        updated.setProgramId(42);
+        mCache.writeMovie(KEPT_CHANNEL_ID, updated);
+
+        try {
+            mCache.importMovies(KEPT_CHANNEL_ID, CatalogStores.createMovies(1, 10).iterator());
+            fail();
+        } catch (UncheckedIOException expected) {
+            // The store failure is propagated.
+        }
+        mCache.flush();
+
+        movies.set(3, updated);
+        assertMovies(movies, mCache.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(movies, mStore.readMovies(KEPT_CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_success_replacesPendingWrites() {
+        List<Movie> movies = CatalogStores.createMovies(0, 10);
+        mCache = new WriteBehindMovieCache(mStore);
+        mCache.writeMovies(KEPT_CHANNEL_ID, movies);
+        List<Movie> imported = CatalogStores.createMovies(1, 10);
+
+        mCache.importMovies(KEPT_CHANNEL_ID, imported.iterator());
+        mCache.flush();
+
+        assertMovies(imported, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(imported, mCache.readMovies(KEPT_CHANNEL_ID));
+    }
+
+    @Test
+    public void importMovies_flushDuringStream_doesNotWait() {
+        mCache = new WriteBehindMovieCache(mStore);
+        final List<Movie> imported = CatalogStores.createMovies(0, 20);
+        final List<Movie> written = CatalogStores.createMovies(1, 10);
+        final Thread flusher =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        mCache.writeMovies(ORPHAN_CHANNEL_ID, written);
+                        mCache.flush();
+                    }
+                };
+
+        mCache.importMovies(
+                KEPT_CHANNEL_ID,
+                new Iterator<Movie>() {
+                    private int mNext;
+
+                    @Override
+                    public boolean hasNext() {
+                        return mNext < imported.size();
+                    }
+
+                    @Override
+                    public Movie next() {
+                        if (mNext == imported.size() / 2) {
+                            flusher.start();
+                            try {
+                                flusher.join(5000);
+                            } catch (InterruptedException e) {
+                                throw new AssertionError(e);
+                            }
+                            assertFalse(flusher.isAlive());
+                        }
+                        return imported.get(mNext++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+
+        assertMovies(imported, mStore.readMovies(KEPT_CHANNEL_ID));
+        assertMovies(written, mStore.readMovies(ORPHAN_CHANNEL_ID));
+    }
+}
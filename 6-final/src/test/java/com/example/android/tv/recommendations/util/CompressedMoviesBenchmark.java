@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.example.android.tv.recommendations.util;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Build;
+import com.example.android.tv.recommendations.Benchmark;
+import com.example.android.tv.recommendations.model.CatalogIterator;
+import com.example.android.tv.recommendations.model.Movie;
+import com.example.android.tv.recommendations.model.SyntheticCatalog;
+import com.google.gson.stream.JsonReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Compares the size and encoding time of a channel stored as a plain JSON array with the Deflate
+ * compressed one that low-RAM devices store.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class CompressedMoviesBenchmark {
+
+    private static final int[] SIZES = {100, 1000, 10000};
+    private static final int WARM_UP_RUNS = 5;
+    private static final int RUNS = 20;
+
+    @Before
+    public void setUp() {
+        Benchmark.assumeEnabled();
+    }
+
+    @Test
+    public void size() {
+        for (int size : SIZES) {
+            List<Movie> movies = createMovies(size);
+            int plain = SharedPreferencesHelper.toJsonArray(movies.iterator()).length();
+            int compressed =
+                    SharedPreferencesHelper.toCompressedJsonArray(movies.iterator()).length();
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "%d movies: plain %d chars, compressed %d chars, %.1f%%",
+                            size,
+                            plain,
+                            compressed,
+                            compressed * 100.0 / plain));
+        }
+    }
+
+    @Test
+    public void encode() {
+        for (int size : SIZES) {
+            List<Movie> movies = createMovies(size);
+            Benchmark plain = new Benchmark(size + " movies plain encode");
+            Benchmark compressed = new Benchmark(size + " movies compressed encode");
+            for (int run = 0; run < WARM_UP_RUNS + RUNS; ++run) {
+                boolean timed = run >= WARM_UP_RUNS;
+                start(plain, timed);
+                SharedPreferencesHelper.toJsonArray(movies.iterator());
+                stop(plain, timed);
+                start(compressed, timed);
+                SharedPreferencesHelper.toCompressedJsonArray(movies.iterator());
+                stop(compressed, timed);
+            }
+            plain.report(size);
+            compressed.report(size);
+        }
+    }
+
+    @Test
+    public void decode() {
+        for (int size : SIZES) {
+            List<Movie> movies = createMovies(size);
+            String plainJson = SharedPreferencesHelper.toJsonArray(movies.iterator());
+            String compressedJson =
+                    SharedPreferencesHelper.toCompressedJsonArray(movies.iterator());
+            Benchmark plain = new Benchmark(size + " movies plain decode");
+            Benchmark compressed = new Benchmark(size + " movies compressed decode");
+            for (int run = 0; run < WARM_UP_RUNS + RUNS; ++run) {
+                boolean timed = run >= WARM_UP_RUNS;
+                start(plain, timed);
+                int plainCount = count(new StringReader(plainJson));
+                stop(plain, timed);
+                start(compressed, timed);
+                int compressedCount = count(SharedPreferencesHelper.openCompressed(compressedJson));
+                stop(compressed, timed);
+                assertEquals(size, plainCount);
+                assertEquals(size, compressedCount);
+            }
+            plain.report(size);
+            compressed.report(size);
+        }
+    }
+
+    private static void start(Benchmark benchmark, boolean timed) {
+        if (timed) {
+            benchmark.start();
+        }
+    }
+
+    private static void stop(Benchmark benchmark, boolean timed) {
+        if (timed) {
+            benchmark.stop();
+        }
+    }
+
+    /** Parses the movies the way a channel is read, and returns how many there were. */
+    private static int count(Reader json) {
+        Iterator<Movie> movies = new MovieTypeAdapter().readArray(new JsonReader(json));
+        int count = 0;
+        while (movies.hasNext()) {
+            movies.next();
+            ++count;
+        }
+        return count;
+    }
+
+    private static List<Movie> createMovies(int count) {
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, 1, count, 0);
+        CatalogIterator movies =
+                new CatalogIterator(catalog.getCatalogSource("Synthetic 1", 0), count);
+        List<Movie> list = new ArrayList<>(count);
+        while (movies.hasNext()) {
+            list.add(movies.next());
+        }
+        return list;
+    }
+}
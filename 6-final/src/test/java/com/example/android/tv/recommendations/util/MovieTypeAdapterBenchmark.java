@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.example.android.tv.recommendations.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.tv.recommendations.Benchmark;
+import com.example.android.tv.recommendations.model.Movie;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Compares {@link MovieTypeAdapter} with the reflective adapter Gson derives for a movie. */
+public class MovieTypeAdapterBenchmark {
+
+    private static final int MOVIES = 10000;
+    private static final int WARM_UP_RUNS = 10;
+    private static final int RUNS = 30;
+
+    private static final Type MOVIE_LIST = new TypeToken<List<Movie>>() {}.getType();
+
+    private final Gson mStreaming =
+            new GsonBuilder().registerTypeAdapter(Movie.class, new MovieTypeAdapter()).create();
+    private final Gson mReflective = new Gson();
+
+    private List<Movie> mMovies;
+
+    @Before
+    public void setUp() {
+        Benchmark.assumeEnabled();
+        mMovies = createMovies(MOVIES);
+    }
+
+    @Test
+    public void bothAdapters_readEachOthersJson() {
+        String streaming = mStreaming.toJson(mMovies, MOVIE_LIST);
+        String reflective = mReflective.toJson(mMovies, MOVIE_LIST);
+
+        assertSameMovies(mMovies, mStreaming.<List<Movie>>fromJson(reflective, MOVIE_LIST));
+        assertSameMovies(mMovies, mReflective.<List<Movie>>fromJson(streaming, MOVIE_LIST));
+    }
+
+    @Test
+    public void toJson() {
+        time("streaming toJson", mStreaming, true);
+        time("reflective toJson", mReflective, true);
+    }
+
+    @Test
+    public void fromJson() {
+        time("streaming fromJson", mStreaming, false);
+        time("reflective fromJson", mReflective, false);
+    }
+
+    private void time(String name, Gson gson, boolean write) {
+        String json = gson.toJson(mMovies, MOVIE_LIST);
+        Benchmark benchmark = new Benchmark(name);
+        for (int run = 0; run < WARM_UP_RUNS + RUNS; ++run) {
+            if (run >= WARM_UP_RUNS) {
+                benchmark.start();
+            }
+            int size =
+                    write
+                            ? gson.toJson(mMovies, MOVIE_LIST).length()
+                            : gson.<List<Movie>>fromJson(json, MOVIE_LIST).size();
+            if (run >= WARM_UP_RUNS) {
+                benchmark.stop();
+            }
+            assertTrue(size > 0);
+        }
+        benchmark.report(MOVIES);
+    }
+
+    private static List<Movie> createMovies(int count) {
+        Random random = new Random(count);
+        List<Movie> movies = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Movie movie = new Movie();
+            movie.setId(random.nextLong());
+            movie.setTitle("Movie " + i);
+            movie.setDescription("Description of movie " + i + ", number " + random.nextInt());
+            movie.setBackgroundImageUrl("https://example.com/bg/" + i + ".jpg");
+            movie.setCardImageUrl("https://example.com/card/" + i + ".jpg");
+            movie.setVideoUrl("https://example.com/video/" + i + ".mp4");
+            movie.setStudio("Studio " + random.nextInt(20));
+            movie.setCategory("Category " + random.nextInt(10));
+            movie.setProgramId(i % 3 == 0 ? 0 : random.nextInt(100000));
+            movie.setWatchNextId(i % 5 == 0 ? random.nextInt(100000) : 0);
+            movies.add(movie);
+        }
+        return movies;
+    }
+
+    private static void assertSameMovies(List<Movie> expected, List<Movie> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getProgramId(), actual.get(i).getProgramId());
+            assertEquals(expected.get(i).getWatchNextId(), actual.get(i).getWatchNextId());
+            assertTrue(expected.get(i).hasSameContent(actual.get(i)));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017 Google Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.example.android.tv.recommendations.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import com.example.android.tv.recommendations.model.CatalogIterator;
+import com.example.android.tv.recommendations.model.Movie;
+import com.example.android.tv.recommendations.model.SyntheticCatalog;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/** Checks how {@link SharedPreferencesHelper} lays out and encodes the catalog. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.O)
+public class SharedPreferencesHelperTest {
+
+    private static final long CHANNEL_ID = 5;
+    private static final long OTHER_CHANNEL_ID = 6;
+
+    /** Where earlier versions kept the movies of every channel, in the root file. */
+    private static final String PREFS_NAME = "com.example.android.tv.recommendations";
+    private static final String MOVIES_KEY_PREFIX =
+            "com.example.android.tv.recommendations.prefs.SUBSCRIBED_MOVIES_";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void readMovies_eitherEncoding_roundTrips() {
+        List<Movie> compressed = createMovies(0, 50);
+        List<Movie> plain = createMovies(1, 50);
+
+        SharedPreferencesHelper.storeMovies(mContext, CHANNEL_ID, compressed.iterator(), true);
+        SharedPreferencesHelper.storeMovies(mContext, OTHER_CHANNEL_ID, plain.iterator(), false);
+
+        assertMovies(compressed, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+        assertMovies(plain, SharedPreferencesHelper.readMovies(mContext, OTHER_CHANNEL_ID));
+    }
+
+    @Test
+    public void storeMovies_switchedEncoding_replacesMovies() {
+        List<Movie> compressed = createMovies(0, 50);
+        List<Movie> plain = createMovies(1, 30);
+        SharedPreferencesHelper.storeMovies(mContext, CHANNEL_ID, compressed.iterator(), true);
+
+        SharedPreferencesHelper.storeMovies(mContext, CHANNEL_ID, plain.iterator(), false);
+        assertMovies(plain, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+
+        SharedPreferencesHelper.storeMovies(mContext, CHANNEL_ID, compressed.iterator(), true);
+        assertMovies(compressed, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+    }
+
+    @Test
+    public void deleteMoviesExcept_deletesUnlistedChannels() {
+        List<Movie> kept = createMovies(0, 20);
+        SharedPreferencesHelper.storeMovies(mContext, CHANNEL_ID, kept);
+        SharedPreferencesHelper.storeMovies(mContext, OTHER_CHANNEL_ID, createMovies(1, 20));
+
+        long bytes =
+                SharedPreferencesHelper.deleteMoviesExcept(
+                        mContext, new HashSet<>(Arrays.asList(CHANNEL_ID)));
+
+        assertTrue(bytes > 0);
+        assertMovies(kept, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+        assertTrue(SharedPreferencesHelper.readMovies(mContext, OTHER_CHANNEL_ID).isEmpty());
+        assertEquals(
+                0,
+                SharedPreferencesHelper.deleteMoviesExcept(
+                        mContext, new HashSet<>(Arrays.asList(CHANNEL_ID))));
+    }
+
+    @Test
+    public void readMovies_legacyRootEntry_movesToChannelFile() {
+        List<Movie> movies = createMovies(0, 20);
+        SharedPreferences rootPreferences = getRootPreferences();
+        rootPreferences
+                .edit()
+                .putString(
+                        MOVIES_KEY_PREFIX + CHANNEL_ID,
+                        SharedPreferencesHelper.toJsonArray(movies.iterator()))
+                .commit();
+
+        assertMovies(movies, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+        assertFalse(rootPreferences.contains(MOVIES_KEY_PREFIX + CHANNEL_ID));
+        assertMovies(movies, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+
+        // The moved channel file is known, so it is deleted with the channel.
+        SharedPreferencesHelper.deleteMoviesExcept(mContext, Collections.<Long>emptySet());
+        assertTrue(SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID).isEmpty());
+    }
+
+    @Test
+    public void readMovies_legacyStringSet_migratesToArray() {
+        List<Movie> movies = createMovies(0, 20);
+        Set<String> stringSet = new HashSet<>();
+        MovieTypeAdapter adapter = new MovieTypeAdapter();
+        for (Movie movie : movies) {
+            stringSet.add(adapter.toJson(movie));
+        }
+        getRootPreferences()
+                .edit()
+                .putStringSet(MOVIES_KEY_PREFIX + CHANNEL_ID, stringSet)
+                .commit();
+
+        List<Movie> read = SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID);
+
+        // A set has no order, so the ids are compared as a set too.
+        assertEquals(movies.size(), read.size());
+        Set<Long> ids = new HashSet<>();
+        for (Movie movie : movies) {
+            ids.add(movie.getId());
+        }
+        for (Movie movie : read) {
+            assertTrue(ids.remove(movie.getId()));
+        }
+        // Read again from the JSON array the set was rewritten as, in the same order.
+        assertMovies(read, SharedPreferencesHelper.readMovies(mContext, CHANNEL_ID));
+    }
+
+    private SharedPreferences getRootPreferences() {
+        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Returns the movies of a generation of a channel, each generation has different movies. */
+    private static List<Movie> createMovies(long generation, int count) {
+        SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.DEFAULT_SEED, 1, count, 1);
+        CatalogIterator movies =
+                new CatalogIterator(catalog.getCatalogSource("Synthetic 1", generation), count);
+        List<Movie> list = new ArrayList<>(count);
+        while (movies.hasNext()) {
+            list.add(movies.next());
+        }
+        return list;
+    }
+
+    private static void assertMovies(List<Movie> expected, List<Movie> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertTrue(expected.get(i).hasSameContent(actual.get(i)));
+        }
+    }
+}